@@ -9,12 +9,23 @@
 package org.openhab.binding.sma.internal;
 
 import java.io.IOException;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Dictionary;
+import java.util.EnumMap;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -25,18 +36,24 @@ import org.openhab.binding.sma.SmaBindingProvider;
 import org.openhab.binding.sma.internal.hardware.devices.BluetoothSolarInverter;
 import org.openhab.binding.sma.internal.hardware.devices.BluetoothSolarInverterPlant;
 import org.openhab.binding.sma.internal.hardware.devices.EthernetSolarInverter;
+import org.openhab.binding.sma.internal.hardware.devices.SmaArchiveListener;
+import org.openhab.binding.sma.internal.hardware.devices.SmaArchiveType;
+import org.openhab.binding.sma.internal.hardware.devices.SmaCursorStore;
 import org.openhab.binding.sma.internal.hardware.devices.SmaDevice;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.InverterDataType;
+import org.openhab.binding.sma.internal.hardware.devices.SmaEvent;
+import org.openhab.binding.sma.internal.hardware.devices.SmaEventLogListener;
+import org.openhab.binding.sma.internal.hardware.devices.SmaSerial;
+import org.openhab.binding.sma.internal.hardware.devices.SmaTopologyCache;
+import org.openhab.binding.sma.internal.hardware.devices.SpeedwireDiscovery;
 import org.openhab.core.binding.AbstractActiveBinding;
 import org.openhab.core.events.EventPublisher;
-import org.openhab.core.items.Item;
-import org.openhab.core.library.items.NumberItem;
-import org.openhab.core.library.items.StringItem;
-import org.openhab.core.library.items.SwitchItem;
-import org.openhab.core.library.types.DecimalType;
-import org.openhab.core.library.types.OnOffType;
-import org.openhab.core.library.types.StringType;
+import org.openhab.core.types.State;
+import org.osgi.framework.BundleContext;
 import org.osgi.service.cm.ConfigurationException;
 import org.osgi.service.cm.ManagedService;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventAdmin;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -54,10 +71,80 @@ public class SmaBinding extends AbstractActiveBinding<SmaBindingProvider>
 			.getLogger(SmaBinding.class);
 
 	private static final Pattern DEVICES_PATTERN = Pattern
-			.compile("^(.*?)\\.(plant|ip|bt|login|password|retry)$");
+			.compile("^(.*?)\\.(plant|ip|serial|bt|login|password|retry|timeout)$");
+
+	// max active connections of a bluetooth piconet
+	private static final int MAX_WORKERS = 7;
+
+	private static final Pattern REFRESH_PATTERN = Pattern
+			.compile("^refresh\\.(\\w+)$");
+
+	/**
+	 * topic of the events of the archived yields, with the properties
+	 * <code>device</code>, <code>susyID</code>, <code>serial</code>,
+	 * <code>archive</code> (the {@link SmaArchiveType}),
+	 * <code>timestamp</code> (ms since the epoch) and <code>totalWh</code>
+	 */
+	public static final String ARCHIVE_TOPIC = "openhab/sma/archive";
+
+	/**
+	 * topic of the events of the event logs, with the properties
+	 * <code>device</code>, <code>susyID</code>, <code>serial</code>,
+	 * <code>timestamp</code> (ms since the epoch), <code>entryID</code>,
+	 * <code>eventCode</code>, <code>flags</code>, <code>group</code>,
+	 * <code>tag</code>, <code>counter</code>, <code>parameter</code>,
+	 * <code>newValue</code> and <code>oldValue</code>
+	 */
+	public static final String EVENTLOG_TOPIC = "openhab/sma/eventlog";
 
 	protected Map<String, SmaDevice> deviceCache = new HashMap<String, SmaDevice>();
 
+	// state of the configured devices
+	private final Map<String, SmaDeviceLifecycle> lifecycles = new ConcurrentHashMap<String, SmaDeviceLifecycle>();
+
+	// last published states, to publish changes only
+	private final SmaChangeFilter changeFilter = new SmaChangeFilter();
+
+	// cadence of the data types
+	private volatile SmaPollingScheduler scheduler = new SmaPollingScheduler(
+			60000);
+
+	// polls independent links concurrently
+	private ExecutorService executor;
+
+	// initialises the devices in the background
+	private ExecutorService connector;
+
+	// topology of the plants, kept across restarts
+	private SmaTopologyCache topologyCache;
+
+	// directory of the speedwire devices, kept across configurations
+	private final SpeedwireDiscovery discovery = new SpeedwireDiscovery();
+
+	// position of the inverters in their logs, kept across restarts
+	private SmaCursorStore cursorStore;
+
+	// time of the next archive download of every device
+	private final Map<String, Long> archiveDue = new ConcurrentHashMap<String, Long>();
+
+	// time (in ms) between two archive downloads, 0 to not read the archives
+	private volatile long archiveInterval = 0;
+
+	// time of the next event log download of every device
+	private final Map<String, Long> eventLogDue = new ConcurrentHashMap<String, Long>();
+
+	// time (in ms) between two event log downloads, 0 to not read the logs
+	private volatile long eventLogInterval = 0;
+
+	private volatile EventAdmin eventAdmin;
+
+	/**
+	 * the number of links which are polled concurrently (optional, defaults
+	 * to one worker per link, up to the devices one bluetooth adapter can
+	 * connect to)
+	 */
+	private int workers = 0;
+
 	/**
 	 * the refresh interval which is used to poll values from the Sma server
 	 * (optional, defaults to 60000ms)
@@ -79,11 +166,105 @@ public class SmaBinding extends AbstractActiveBinding<SmaBindingProvider>
 			}
 		} catch (BluetoothStateException e) {
 		}
+
+		connectDevices();
 	}
 
 	public void deactivate() {
 		// deallocate resources here that are no longer needed and
 		// should be reset when activating this binding again
+		closeDevices();
+		shutdownExecutor();
+		discovery.stop();
+	}
+
+	private synchronized ExecutorService getConnector() {
+		if (connector == null) {
+			connector = Executors.newFixedThreadPool(MAX_WORKERS,
+					new ThreadFactory() {
+						private int count = 0;
+
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "SMA connector "
+									+ (++count));
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+		return connector;
+	}
+
+	private synchronized ExecutorService getExecutor(int links) {
+		if (executor == null) {
+			int size = workers > 0 ? workers : Math.min(links, MAX_WORKERS);
+			logger.debug("polling {} links with {} workers", links, size);
+			executor = Executors.newFixedThreadPool(size, new ThreadFactory() {
+				private int count = 0;
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "SMA poller " + (++count));
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+
+	private synchronized void shutdownExecutor() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+		if (connector != null) {
+			connector.shutdownNow();
+			connector = null;
+		}
+	}
+
+	private synchronized SmaTopologyCache getTopologyCache() {
+		if (topologyCache == null) {
+			BundleContext context = SmaActivator.getContext();
+			topologyCache = new SmaTopologyCache(context != null ? context
+					.getDataFile(SmaTopologyCache.FILE_NAME) : null);
+		}
+		return topologyCache;
+	}
+
+	private synchronized SmaCursorStore getCursorStore() {
+		if (cursorStore == null) {
+			BundleContext context = SmaActivator.getContext();
+			cursorStore = new SmaCursorStore(context != null ? context
+					.getDataFile(SmaCursorStore.FILE_NAME) : null);
+		}
+		return cursorStore;
+	}
+
+	public void setEventAdmin(EventAdmin eventAdmin) {
+		this.eventAdmin = eventAdmin;
+	}
+
+	public void unsetEventAdmin(EventAdmin eventAdmin) {
+		this.eventAdmin = null;
+	}
+
+	/**
+	 * starts the initialisation of all devices which are not connected
+	 */
+	private void connectDevices() {
+		for (SmaDeviceLifecycle lifecycle : lifecycles.values()) {
+			lifecycle.connect(getConnector());
+		}
+	}
+
+	private void closeDevices() {
+		for (SmaDeviceLifecycle lifecycle : lifecycles.values()) {
+			lifecycle.close();
+		}
+		lifecycles.clear();
 	}
 
 	/**
@@ -91,7 +272,7 @@ public class SmaBinding extends AbstractActiveBinding<SmaBindingProvider>
 	 */
 	@Override
 	protected long getRefreshInterval() {
-		return refreshInterval;
+		return scheduler.getTick();
 	}
 
 	/**
@@ -109,49 +290,245 @@ public class SmaBinding extends AbstractActiveBinding<SmaBindingProvider>
 	protected void execute() {
 		// the frequently executed code (polling) goes here ...
 		logger.debug("execute() method is called!");
-		for (SmaBindingProvider currentProvider : providers) {
-
-			for (String currentItem : currentProvider.getItemNames()) {
-				logger.debug("item: {}", currentItem);
-				SmaBindingConfig currentConfig = currentProvider
-						.getDeviceConfig(currentItem);
-				
-				if (!deviceCache.containsKey(currentConfig.getDeviceId()))
-					continue;
-				
-				SmaDevice dev = deviceCache.get(currentConfig.getDeviceId());
-				try {
-					dev.init();
-					
-					String value = dev.getValueAsString(currentConfig.getLRIDefinition());
-					
-					if (value != null) {
-						Class<? extends Item> itemType = currentProvider.getItemType(currentItem);
-
-						org.openhab.core.types.State state = null;
-
-						if (itemType.isAssignableFrom(SwitchItem.class)) {
-							if (value.equals("1"))
-								state = OnOffType.ON;
-							else
-								state = OnOffType.OFF;
-						} else if (itemType.isAssignableFrom(NumberItem.class)) {
-							state = new DecimalType(value);
-						} else if (itemType.isAssignableFrom(StringItem.class)) {
-							state = new StringType(value);
-						}
 
-						if (state != null)
-							eventPublisher.postUpdate(currentItem, state);						
-					} else {
-						logger.error("unable to get value for dev {}", dev.toString());
+		final long now = System.currentTimeMillis();
+		readLogs(now);
+
+		SmaPollingCycle cycle = SmaPollingCycle.plan(providers, deviceCache);
+		Collection<List<SmaPollingCycle.DevicePlan>> links = cycle.getLinks();
+
+		if (links.size() <= 1) {
+			for (List<SmaPollingCycle.DevicePlan> link : links) {
+				poll(link, now);
+			}
+			return;
+		}
+
+		// poll independent links concurrently and wait for all of them, so
+		// the cycle is as long as the slowest link
+		ExecutorService executor = getExecutor(links.size());
+		List<Future<?>> results = new ArrayList<Future<?>>();
+		for (final List<SmaPollingCycle.DevicePlan> link : links) {
+			results.add(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					poll(link, now);
+				}
+			}));
+		}
+
+		for (Future<?> result : results) {
+			try {
+				result.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+				logger.error("polling failed", e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * polls all devices sharing one physical link
+	 */
+	private void poll(List<SmaPollingCycle.DevicePlan> link, long now) {
+		for (SmaPollingCycle.DevicePlan plan : link) {
+			Set<InverterDataType> due = scheduler.getDueTypes(
+					plan.getDeviceId(), plan.getDataTypes(), now);
+			if (due.isEmpty() && !plan.getDataTypes().isEmpty())
+				continue;
+
+			logger.debug("polling {} for {}", plan, due);
+
+			// the device is initialised in the background, the cycle never
+			// waits for its discovery
+			SmaDeviceLifecycle lifecycle = lifecycles.get(plan.getDeviceId());
+			if (lifecycle == null)
+				continue;
+
+			SmaDeviceLifecycle.State state = lifecycle.getState();
+			if (state != SmaDeviceLifecycle.State.READY) {
+				if (state == SmaDeviceLifecycle.State.DEGRADED) {
+					// not reachable, tried again with the cadence of a device
+					// asleep
+					scheduler.polled(plan.getDeviceId(), null, due, now);
+				}
+				lifecycle.connect(getConnector());
+				continue;
+			}
+
+			SmaDevice dev = plan.getDevice();
+			try {
+				if (!due.isEmpty())
+					dev.readInverterData(due, plan.getLRIs());
+			} catch (IOException e) {
+				lifecycle.failed();
+				lifecycle.connect(getConnector());
+
+				if (scheduler.isAsleep(plan.getDeviceId())) {
+					logger.debug("dev {} still asleep: {}", dev.toString(),
+							e.getMessage());
+				} else {
+					logger.error("unable to read data of dev {}:\n {}",
+							dev.toString(), e.getMessage());
+				}
+				scheduler.polled(plan.getDeviceId(), null, due, now);
+				continue;
+			}
+			scheduler.polled(plan.getDeviceId(), dev, due, now);
+
+			for (SmaPollingCycle.ItemBinding item : plan.getItems()) {
+				publish(dev, item, now);
+			}
+		}
+	}
+
+	/**
+	 * Starts the download of the archives and event logs of all ready
+	 * devices which are due. The download runs in the background, it is
+	 * serialised with the polling of the device by its session.
+	 */
+	private void readLogs(long now) {
+		for (final SmaDeviceLifecycle lifecycle : lifecycles.values()) {
+			if (!lifecycle.isReady())
+				continue;
+
+			String deviceId = lifecycle.getDeviceId();
+			final boolean archive = isDue(archiveDue, archiveInterval,
+					deviceId, now);
+			final boolean eventLog = isDue(eventLogDue, eventLogInterval,
+					deviceId, now);
+			if (!archive && !eventLog)
+				continue;
+
+			try {
+				getConnector().execute(new Runnable() {
+					@Override
+					public void run() {
+						readLogs(lifecycle, archive, eventLog);
 					}
-				} catch (IOException e) {
-					logger.error("unable to init dev {}:\n {}", dev.toString(), e.getMessage());
+				});
+			} catch (RejectedExecutionException e) {
+				// the binding is shutting down
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the download is due, it is then scheduled
+	 *         for the next interval
+	 */
+	private static boolean isDue(Map<String, Long> due, long interval,
+			String deviceId, long now) {
+		if (interval <= 0)
+			return false;
+
+		Long next = due.get(deviceId);
+		if (next != null && next > now)
+			return false;
+
+		due.put(deviceId, now + interval);
+		return true;
+	}
+
+	private void readLogs(SmaDeviceLifecycle lifecycle, boolean archive,
+			boolean eventLog) {
+		final String deviceId = lifecycle.getDeviceId();
+
+		try {
+			if (archive) {
+				SmaArchiveListener listener = new SmaArchiveListener() {
+					@Override
+					public void archived(SmaSerial serial,
+							SmaArchiveType type, int timestamp, long totalWh) {
+						publishArchived(deviceId, serial, type, timestamp,
+								totalWh);
+					}
+				};
+				for (SmaArchiveType type : SmaArchiveType.values()) {
+					lifecycle.getDevice().readArchive(type, listener);
 				}
 			}
+
+			if (eventLog) {
+				lifecycle.getDevice().readEventLog(new SmaEventLogListener() {
+					@Override
+					public void logged(SmaSerial serial, SmaEvent event) {
+						publishLogged(deviceId, serial, event);
+					}
+				});
+			}
+		} catch (IOException e) {
+			logger.debug("unable to read the logs of dev {}: {}", deviceId,
+					e.getMessage());
+			lifecycle.failed();
+			lifecycle.connect(getConnector());
 		}
+	}
+
+	/**
+	 * Posts an archived yield as event. The item states and the persistence
+	 * of openHAB have no timestamps of their own, so the records are passed
+	 * to the consumers of the {@link #ARCHIVE_TOPIC}.
+	 */
+	private void publishArchived(String deviceId, SmaSerial serial,
+			SmaArchiveType type, int timestamp, long totalWh) {
+		EventAdmin eventAdmin = this.eventAdmin;
+		if (eventAdmin == null)
+			return;
+
+		Dictionary<String, Object> properties = new Hashtable<String, Object>();
+		properties.put("device", deviceId);
+		properties.put("susyID", serial.getSUSyID());
+		properties.put("serial", serial.getSerial());
+		properties.put("archive", type.name());
+		properties.put("timestamp", timestamp * 1000L);
+		properties.put("totalWh", totalWh);
+		eventAdmin.postEvent(new Event(ARCHIVE_TOPIC, properties));
+	}
+
+	/**
+	 * posts an entry of an event log as event on the {@link #EVENTLOG_TOPIC}
+	 */
+	private void publishLogged(String deviceId, SmaSerial serial,
+			SmaEvent event) {
+		logger.debug("dev {} logged {}", deviceId, event);
+
+		EventAdmin eventAdmin = this.eventAdmin;
+		if (eventAdmin == null)
+			return;
+
+		Dictionary<String, Object> properties = new Hashtable<String, Object>();
+		properties.put("device", deviceId);
+		properties.put("susyID", serial.getSUSyID());
+		properties.put("serial", serial.getSerial());
+		properties.put("timestamp", event.getTimestamp() * 1000L);
+		properties.put("entryID", event.getEntryID());
+		properties.put("eventCode", event.getEventCode());
+		properties.put("flags", event.getFlags());
+		properties.put("group", event.getGroup());
+		properties.put("tag", event.getTag());
+		properties.put("counter", event.getCounter());
+		properties.put("parameter", event.getParameter());
+		properties.put("newValue", event.getNewValue());
+		properties.put("oldValue", event.getOldValue());
+		eventAdmin.postEvent(new Event(EVENTLOG_TOPIC, properties));
+	}
 
+	private void publish(SmaDevice dev, SmaPollingCycle.ItemBinding item,
+			long now) {
+		State state = SmaStateConverter.toState(dev, item.getConfig()
+				.getLRIDefinition(), item.getItemType());
+
+		if (state != null) {
+			if (changeFilter.accept(item.getItemName(), item.getConfig(),
+					state, now))
+				eventPublisher.postUpdate(item.getItemName(), state);
+		} else {
+			logger.error("unable to get value for dev {}", dev.toString());
+		}
 	}
 
 	@Override
@@ -178,6 +555,11 @@ public class SmaBinding extends AbstractActiveBinding<SmaBindingProvider>
 			throws ConfigurationException {
 		if (config != null) {
 			Map<String, Device> configStore = new HashMap<String, Device>();
+			Map<InverterDataType, Long> cadences = new EnumMap<InverterDataType, Long>(
+					InverterDataType.class);
+			long asleepInterval = 0;
+			long archive = 0;
+			long eventLog = 0;
 
 			// Based on fritzAHA parsing mechanism
 			Enumeration<String> keys = config.keys();
@@ -189,8 +571,52 @@ public class SmaBinding extends AbstractActiveBinding<SmaBindingProvider>
 				// parameter to openhab.cfg like
 				// <bindingName>:refresh=<intervalInMs>
 				if ("refresh".equals(key)) {
-					refreshInterval = Long.parseLong((String) config
-							.get("refresh"));
+					refreshInterval = parseInterval(key, config.get(key));
+					continue;
+				}
+
+				// <bindingName>:workers=<count>
+				if ("workers".equals(key)) {
+					workers = (int) Math.min(
+							parseInterval(key, config.get(key)),
+							Integer.MAX_VALUE);
+					continue;
+				}
+
+				// the interval of the discovery of devices configured by
+				// serial is set by <bindingName>:discovery=<intervalInMs>
+				if ("discovery".equals(key)) {
+					discovery.setInterval(parseInterval(key, config.get(key)));
+					continue;
+				}
+
+				// the cadence of single data types, while the inverter is
+				// asleep or of the download of the archives and event logs
+				// is set by
+				// <bindingName>:refresh.<InverterDataType|asleep|archive|eventlog>=<intervalInMs>
+				Matcher refreshMatcher = REFRESH_PATTERN.matcher(key);
+				if (refreshMatcher.matches()) {
+					String name = refreshMatcher.group(1);
+					long interval = parseInterval(key, config.get(key));
+					if ("asleep".equals(name)) {
+						asleepInterval = interval;
+						continue;
+					}
+					if ("archive".equals(name)) {
+						archive = interval;
+						continue;
+					}
+					if ("eventlog".equals(name)) {
+						eventLog = interval;
+						continue;
+					}
+					try {
+						cadences.put(InverterDataType.valueOf(name), interval);
+					} catch (IllegalArgumentException e) {
+						throw new ConfigurationException(key,
+								"the given data type '" + name
+										+ "' is unknown");
+					}
 					continue;
 				}
 
@@ -199,7 +625,7 @@ public class SmaBinding extends AbstractActiveBinding<SmaBindingProvider>
 				if (!matcher.matches()) {
 					logger.debug("given config key '"
 							+ key
-							+ "' does not follow the expected pattern '<id>.<plant|bt|ip|login|password|retry>'");
+							+ "' does not follow the expected pattern '<id>.<plant|bt|ip|serial|login|password|retry|timeout>'");
 					continue;
 				}
 
@@ -214,6 +640,8 @@ public class SmaBinding extends AbstractActiveBinding<SmaBindingProvider>
 					dev = new Device(devId);
 
 					dev.eventPublisher = eventPublisher;
+					dev.setTopologyCache(getTopologyCache());
+					dev.setCursorStore(getCursorStore());
 					configStore.put(devId, dev);
 					logger.debug("Created new SMA configuration " + devId);
 				}
@@ -226,19 +654,32 @@ public class SmaBinding extends AbstractActiveBinding<SmaBindingProvider>
 				} else if ("bt".equals(configKey)) {
 					dev.setBTAdress(value);
 				} else if ("ip".equals(configKey)) {
+					// resolved when the device is initialised
+					dev.setHost(value);
+				} else if ("serial".equals(configKey)) {
 					try {
-						dev.setAddress(InetAddress.getByName(value));
-					} catch (UnknownHostException e) {
-						logger.error("Unable to get IP-Adress of host '{}'",
-								value);
+						dev.setSerial(Long.parseLong(value.trim()));
+					} catch (NumberFormatException e) {
+						throw new ConfigurationException(key,
+								"the given serial '" + value
+										+ "' is no number");
 					}
+					dev.setDiscovery(discovery);
 				} else if ("login".equals(configKey)) {
 					dev.setLoginAsInstaller("installer".equals(value
 							.toLowerCase()));
 				} else if ("password".equals(configKey)) {
 					dev.setPassword(value);
 				} else if ("retry".equals(configKey)) {
-					dev.setRetry(Integer.parseInt((String) value));
+					long retry = parseNumber(key, value);
+					if (retry < 0) {
+						throw new ConfigurationException(key,
+								"the given retry count '" + value
+										+ "' is negative");
+					}
+					dev.setRetry((int) Math.min(retry, Integer.MAX_VALUE));
+				} else if ("timeout".equals(configKey)) {
+					dev.setTimeout(parseInterval(key, value));
 				} else {
 					throw new ConfigurationException(configKey,
 							"the given configKey '" + configKey
@@ -246,12 +687,36 @@ public class SmaBinding extends AbstractActiveBinding<SmaBindingProvider>
 				}
 			}
 
+			closeDevices();
+			shutdownExecutor();
 			deviceCache.clear();
+			changeFilter.clear();
+			archiveDue.clear();
+			eventLogDue.clear();
+
+			SmaPollingScheduler scheduler = new SmaPollingScheduler(
+					refreshInterval);
+			for (Map.Entry<InverterDataType, Long> cadence : cadences
+					.entrySet()) {
+				scheduler.setCadence(cadence.getKey(), cadence.getValue());
+			}
+			if (asleepInterval > 0)
+				scheduler.setAsleepInterval(asleepInterval);
+			this.scheduler = scheduler;
+			this.archiveInterval = archive;
+			this.eventLogInterval = eventLog;
+
+			boolean discover = false;
 			for (Device entry : configStore.values()) {
+				if (entry.getSerial() != 0)
+					discover = true;
+
 				logger.debug("Creating config for devide {}", entry);
 				SmaDevice device = entry.createSmaDevice();
 				if (device != null) {
 					deviceCache.put(entry.deviceId, device);
+					lifecycles.put(entry.deviceId, new SmaDeviceLifecycle(
+							entry.deviceId, device));
 				} else {
 					logger.error("unable to create SMA device {}",
 							entry.toString());
@@ -263,9 +728,48 @@ public class SmaBinding extends AbstractActiveBinding<SmaBindingProvider>
 			}
 			setProperlyConfigured(true);
 			logger.debug("SMA Binding configured");
+
+			if (discover) {
+				discovery.start();
+			} else {
+				discovery.stop();
+			}
+
+			connectDevices();
 		}
 	}
 
+	/**
+	 * @return the value of a key as number
+	 * @throws ConfigurationException
+	 *             if the value is no number
+	 */
+	private static long parseNumber(String key, Object value)
+			throws ConfigurationException {
+		try {
+			return Long.parseLong(((String) value).trim());
+		} catch (NumberFormatException e) {
+			throw new ConfigurationException(key, "the given value '" + value
+					+ "' is no number");
+		}
+	}
+
+	/**
+	 * @return the value of a key as interval, timeout or count which has to
+	 *         be greater than 0
+	 * @throws ConfigurationException
+	 *             if the value is no number or not greater than 0
+	 */
+	private static long parseInterval(String key, Object value)
+			throws ConfigurationException {
+		long interval = parseNumber(key, value);
+		if (interval <= 0) {
+			throw new ConfigurationException(key, "the given value '" + value
+					+ "' has to be greater than 0");
+		}
+		return interval;
+	}
+
 	/**
 	 * Internal data structure which carries the connection details of one
 	 * device (there could be several)
@@ -273,8 +777,14 @@ public class SmaBinding extends AbstractActiveBinding<SmaBindingProvider>
 	public static class Device {
 		private boolean loginAsInstaller = false;
 		private int retry = 10;
+		// time (in ms) to wait for a response, 0 for the default of the layer
+		private long timeout = 0;
+		private SmaTopologyCache topologyCache;
+		private SmaCursorStore cursorStore;
 		private String password = "0000";
-		private InetAddress address;
+		private String host;
+		private long serial;
+		private SpeedwireDiscovery discovery;
 		private String bt;
 		private String plant;
 
@@ -284,7 +794,7 @@ public class SmaBinding extends AbstractActiveBinding<SmaBindingProvider>
 
 		public SmaDevice createSmaDevice() {
 			SmaDevice dev;
-			if (this.address != null) {
+			if (this.host != null || this.serial != 0) {
 				dev = new EthernetSolarInverter(this);
 			} else if (this.bt != null) {
 				dev = new BluetoothSolarInverter(this);
@@ -309,6 +819,38 @@ public class SmaBinding extends AbstractActiveBinding<SmaBindingProvider>
 			this.retry = retry;
 		}
 
+		public long getTimeout() {
+			return timeout;
+		}
+
+		public void setTimeout(long timeout) {
+			this.timeout = timeout;
+		}
+
+		/**
+		 * @return the cache of the plant topologies or <code>null</code> to
+		 *         discover every plant
+		 */
+		public SmaTopologyCache getTopologyCache() {
+			return topologyCache;
+		}
+
+		public void setTopologyCache(SmaTopologyCache topologyCache) {
+			this.topologyCache = topologyCache;
+		}
+
+		/**
+		 * @return the store of the positions in the logs of the inverters
+		 *         or <code>null</code> to start from the beginning
+		 */
+		public SmaCursorStore getCursorStore() {
+			return cursorStore;
+		}
+
+		public void setCursorStore(SmaCursorStore cursorStore) {
+			this.cursorStore = cursorStore;
+		}
+
 		public String getPassword() {
 			return password;
 		}
@@ -317,23 +859,55 @@ public class SmaBinding extends AbstractActiveBinding<SmaBindingProvider>
 			this.password = password;
 		}
 
-		public InetAddress getAddress() {
-			return address;
+		/**
+		 * @return the host name or IP address of an ethernet inverter
+		 */
+		public String getHost() {
+			return host;
 		}
 
-		public void setAddress(InetAddress address) {
-			this.address = address;
+		public void setHost(String host) {
+			this.host = host;
+			this.serial = 0;
 			this.bt = null;
 			this.plant = null;
 		}
 
+		/**
+		 * @return the serial of an ethernet inverter whose address is
+		 *         discovered or 0
+		 */
+		public long getSerial() {
+			return serial;
+		}
+
+		public void setSerial(long serial) {
+			this.serial = serial;
+			this.host = null;
+			this.bt = null;
+			this.plant = null;
+		}
+
+		/**
+		 * @return the discovery of the address of an inverter configured by
+		 *         serial
+		 */
+		public SpeedwireDiscovery getDiscovery() {
+			return discovery;
+		}
+
+		public void setDiscovery(SpeedwireDiscovery discovery) {
+			this.discovery = discovery;
+		}
+
 		public String getBTAdress() {
 			return bt;
 		}
 
 		public void setBTAdress(String bt) {
 			this.bt = bt;
-			this.address = null;
+			this.host = null;
+			this.serial = 0;
 			this.plant = null;
 		}
 
@@ -341,10 +915,22 @@ public class SmaBinding extends AbstractActiveBinding<SmaBindingProvider>
 			return plant;
 		}
 
+		/**
+		 * @return the address of the physical link to the device
+		 */
+		public String getConnectionId() {
+			if (host != null)
+				return host;
+			if (serial != 0)
+				return String.valueOf(serial);
+			return bt != null ? bt : plant;
+		}
+
 		public void setPlant(String plant) {
 			this.plant = plant;
 			this.bt = null;
-			this.address = null;
+			this.host = null;
+			this.serial = 0;
 		}
 
 		public String getDeviceId() {
@@ -371,9 +957,13 @@ public class SmaBinding extends AbstractActiveBinding<SmaBindingProvider>
 		}
 
 		public String toString() {
-			if (this.address != null)
-				return "Device " + deviceId + " [IP=" + address + ", login as "
+			if (this.host != null)
+				return "Device " + deviceId + " [IP=" + host + ", login as "
 						+ (loginAsInstaller ? "installer" : "user") + "]";
+			if (this.serial != 0)
+				return "Device " + deviceId + " [serial=" + serial
+						+ ", login as " + (loginAsInstaller ? "installer" : "user")
+						+ "]";
 			if (this.bt != null)
 				return "Device " + deviceId + " [BT=" + bt + ", login as "
 						+ (loginAsInstaller ? "installer" : "user") + "]";
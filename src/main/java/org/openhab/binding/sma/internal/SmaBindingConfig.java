@@ -9,13 +9,20 @@ public class SmaBindingConfig implements BindingConfig {
 	final private Class<? extends Item> itemType;
 	final private LRIDefinition type;
 	final private String deviceId;
-	
+
+	// minimal absolute change of the value to be published
+	private double absoluteDeadband = 0;
+	// minimal change of the value in percent of the last published value
+	private double relativeDeadband = 0;
+	// max time (in ms) without update, 0 to publish changes only
+	private long maxSilence = 0;
+
 	public SmaBindingConfig(Class<? extends Item> itemType, String deviceId, LRIDefinition type) {
 		this.itemType = itemType;
 		this.type = type;
 		this.deviceId = deviceId;
 	}
-	
+
 	public Class<? extends Item> getItemType() {
 		return itemType;
 	}
@@ -23,8 +30,32 @@ public class SmaBindingConfig implements BindingConfig {
 	public LRIDefinition getLRIDefinition() {
 		return type;
 	}
-	
+
 	public String getDeviceId() {
 		return deviceId;
 	}
-}
\ No newline at end of file
+
+	public double getAbsoluteDeadband() {
+		return absoluteDeadband;
+	}
+
+	public void setAbsoluteDeadband(double absoluteDeadband) {
+		this.absoluteDeadband = absoluteDeadband;
+	}
+
+	public double getRelativeDeadband() {
+		return relativeDeadband;
+	}
+
+	public void setRelativeDeadband(double relativeDeadband) {
+		this.relativeDeadband = relativeDeadband;
+	}
+
+	public long getMaxSilence() {
+		return maxSilence;
+	}
+
+	public void setMaxSilence(long maxSilence) {
+		this.maxSilence = maxSilence;
+	}
+}
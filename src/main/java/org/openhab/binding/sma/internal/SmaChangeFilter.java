@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.types.State;
+
+/**
+ * Decides whether a new state of an item has to be published.
+ *
+ * The last published state of every item is kept. A state is only published
+ * if it differs from the last published one. Numbers additionally have to
+ * leave the absolute and relative deadband configured for the item. If a max
+ * silence is configured the state is published anyway when the last update
+ * is older.
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public class SmaChangeFilter {
+
+	private final Map<String, Published> published = new HashMap<String, Published>();
+
+	/**
+	 * Checks the state and remembers it as published if it passes
+	 *
+	 * @param itemName
+	 *            the name of the item
+	 * @param config
+	 *            the configuration of the item
+	 * @param state
+	 *            the new state
+	 * @param now
+	 *            current time in ms
+	 * @return <code>true</code> if the state has to be published
+	 */
+	public synchronized boolean accept(String itemName,
+			SmaBindingConfig config, State state, long now) {
+		Published last = published.get(itemName);
+
+		if (last == null || last.config != config
+				|| (config.getMaxSilence() > 0 && now - last.time >= config
+						.getMaxSilence()) || isChanged(config, last.state, state)) {
+			published.put(itemName, new Published(config, state, now));
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * forgets all published states, so the next states are published in any
+	 * case
+	 */
+	public synchronized void clear() {
+		published.clear();
+	}
+
+	private static boolean isChanged(SmaBindingConfig config, State last,
+			State state) {
+		if (last instanceof DecimalType && state instanceof DecimalType) {
+			double lastValue = ((DecimalType) last).doubleValue();
+			double delta = Math.abs(((DecimalType) state).doubleValue()
+					- lastValue);
+
+			if (delta == 0)
+				return false;
+			if (delta <= config.getAbsoluteDeadband())
+				return false;
+			if (delta <= Math.abs(lastValue) * config.getRelativeDeadband()
+					/ 100)
+				return false;
+			return true;
+		}
+
+		return !state.equals(last);
+	}
+
+	private static class Published {
+		private final SmaBindingConfig config;
+		private final State state;
+		private final long time;
+
+		Published(SmaBindingConfig config, State state, long time) {
+			this.config = config;
+			this.state = state;
+			this.time = time;
+		}
+	}
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The state of a configured device, owned by the {@link SmaBinding}.
+ *
+ * A device is initialised (connected, its plant discovered) in the
+ * background, the polling cycle only polls devices which are
+ * {@link State#READY}. A device which failed to initialise or to be polled
+ * is {@link State#DEGRADED} until it is connected again.
+ *
+ * <pre>
+ * CREATED -> CONNECTING -> READY -> DEGRADED -> CONNECTING -> ...
+ *                       -> DEGRADED
+ * any state -> CLOSED
+ * </pre>
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public class SmaDeviceLifecycle {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(SmaDeviceLifecycle.class);
+
+	public enum State {
+		CREATED, CONNECTING, READY, DEGRADED, CLOSED
+	}
+
+	private final String deviceId;
+	private final SmaDevice device;
+
+	private State state = State.CREATED;
+
+	public SmaDeviceLifecycle(String deviceId, SmaDevice device) {
+		this.deviceId = deviceId;
+		this.device = device;
+	}
+
+	public String getDeviceId() {
+		return deviceId;
+	}
+
+	public SmaDevice getDevice() {
+		return device;
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	public synchronized boolean isReady() {
+		return state == State.READY;
+	}
+
+	/**
+	 * Initialises the device on the given executor, unless it is already
+	 * connecting, ready or closed
+	 */
+	public synchronized void connect(ExecutorService executor) {
+		if (state != State.CREATED && state != State.DEGRADED)
+			return;
+
+		State previous = state;
+		state = State.CONNECTING;
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					initialize();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// the binding is shutting down
+			state = previous;
+		}
+	}
+
+	private void initialize() {
+		logger.debug("initializing device {}", deviceId);
+		try {
+			device.init();
+			changeState(State.CONNECTING, State.READY);
+		} catch (IOException e) {
+			logger.debug("unable to initialize device {}: {}", deviceId,
+					e.getMessage());
+			changeState(State.CONNECTING, State.DEGRADED);
+		} catch (RuntimeException e) {
+			logger.error("unable to initialize device " + deviceId, e);
+			changeState(State.CONNECTING, State.DEGRADED);
+		}
+	}
+
+	/**
+	 * marks a ready device as degraded after a failed poll, it has to be
+	 * connected again
+	 */
+	public void failed() {
+		changeState(State.READY, State.DEGRADED);
+	}
+
+	/**
+	 * closes the device, it is never connected again
+	 */
+	public void close() {
+		synchronized (this) {
+			if (state == State.CLOSED)
+				return;
+			state = State.CLOSED;
+		}
+		device.close();
+	}
+
+	private synchronized void changeState(State expected, State next) {
+		// the device may have been closed meanwhile
+		if (state != expected)
+			return;
+
+		logger.debug("device {}: {} -> {}", deviceId, state, next);
+		state = next;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "SmaDeviceLifecycle [deviceId=" + deviceId + ", state=" + state
+				+ "]";
+	}
+}
@@ -42,6 +42,9 @@ public class SmaGenericBindingProvider extends AbstractGenericBindingProvider
 	private static final Logger logger = LoggerFactory
 			.getLogger(SmaBinding.class);
 
+	private static final Pattern OPTION_PATTERN = Pattern
+			.compile("^(\\w+)=(.+)$");
+
 	private Map<String, SmaDevice> devices;
 
 	/**
@@ -76,7 +79,7 @@ public class SmaGenericBindingProvider extends AbstractGenericBindingProvider
 		super.processBindingConfiguration(context, item, bindingConfig);
 
 		String[] parts = bindingConfig.trim().split(":");
-		if (parts.length == 2 && this.devices != null) {
+		if (parts.length >= 2 && this.devices != null) {
 			SmaDevice device = this.devices.get(parts[0]);
 			if (device != null) {
 				List<LRIDefinition> validLRIDefinitions = device.getValidLRIDefinitions();
@@ -94,16 +97,63 @@ public class SmaGenericBindingProvider extends AbstractGenericBindingProvider
 					throw new BindingConfigParseException(msg);
 				}
 
-				addBindingConfig(item, new SmaBindingConfig(item.getClass(),
-						parts[0], LRIDefinition.fromOrdinal(parts[1])));
+				SmaBindingConfig config = new SmaBindingConfig(item.getClass(),
+						parts[0], LRIDefinition.fromOrdinal(parts[1]));
+				for (int i = 2; i < parts.length; i++) {
+					parseOption(config, parts[i]);
+				}
+
+				addBindingConfig(item, config);
 			}
 
 		} else {
 			throw new BindingConfigParseException(
-					"SMA items must have with <hostID>:<type>");
+					"SMA items must have with <hostID>:<type>[:abs=<value>][:rel=<percent>][:maxsilence=<seconds>]");
 		}
 
 	}
+
+	/**
+	 * parses an optional publishing option of an item
+	 * 
+	 * @param config
+	 *            the configuration of the item
+	 * @param option
+	 *            option as &lt;key&gt;=&lt;value&gt;
+	 * @throws BindingConfigParseException
+	 */
+	private void parseOption(SmaBindingConfig config, String option)
+			throws BindingConfigParseException {
+		Matcher matcher = OPTION_PATTERN.matcher(option.trim());
+		if (!matcher.matches()) {
+			throw new BindingConfigParseException("given option '" + option
+					+ "' does not follow the expected pattern '<key>=<value>'");
+		}
+
+		String key = matcher.group(1).toLowerCase();
+		double value;
+		try {
+			value = Double.parseDouble(matcher.group(2));
+		} catch (NumberFormatException e) {
+			throw new BindingConfigParseException("value of option '" + key
+					+ "' must be a number");
+		}
+		if (value < 0) {
+			throw new BindingConfigParseException("value of option '" + key
+					+ "' must not be negative");
+		}
+
+		if ("abs".equals(key)) {
+			config.setAbsoluteDeadband(value);
+		} else if ("rel".equals(key)) {
+			config.setRelativeDeadband(value);
+		} else if ("maxsilence".equals(key)) {
+			config.setMaxSilence((long) (value * 1000));
+		} else {
+			throw new BindingConfigParseException("unknown option '" + key
+					+ "', expected abs, rel or maxsilence");
+		}
+	}
 	
 	@Override
 	public Class<? extends Item> getItemType(String itemName) {
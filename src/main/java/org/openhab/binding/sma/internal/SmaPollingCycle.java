@@ -0,0 +1,180 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.openhab.binding.sma.SmaBindingProvider;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.InverterDataType;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.LRIDefinition;
+import org.openhab.core.items.Item;
+
+/**
+ * Plans one refresh cycle: all bound items are grouped by their device and
+ * the {@link InverterDataType} they need, so that every data type is queried
+ * only once per device and cycle.
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public class SmaPollingCycle {
+
+	private final Map<String, DevicePlan> plans = new LinkedHashMap<String, DevicePlan>();
+
+	/**
+	 * Creates the plan for the items of all given providers
+	 *
+	 * @param providers
+	 *            the binding providers holding the item configuration
+	 * @param devices
+	 *            the configured devices
+	 * @return the plan of this cycle
+	 */
+	public static SmaPollingCycle plan(
+			Collection<SmaBindingProvider> providers,
+			Map<String, SmaDevice> devices) {
+		SmaPollingCycle cycle = new SmaPollingCycle();
+
+		for (SmaBindingProvider provider : providers) {
+			for (String itemName : provider.getItemNames()) {
+				SmaBindingConfig config = provider.getDeviceConfig(itemName);
+				if (config == null)
+					continue;
+
+				SmaDevice device = devices.get(config.getDeviceId());
+				if (device == null)
+					continue;
+
+				cycle.add(device, itemName, provider.getItemType(itemName),
+						config);
+			}
+		}
+
+		return cycle;
+	}
+
+	protected void add(SmaDevice device, String itemName,
+			Class<? extends Item> itemType, SmaBindingConfig config) {
+		DevicePlan plan = plans.get(config.getDeviceId());
+		if (plan == null) {
+			plan = new DevicePlan(config.getDeviceId(), device);
+			plans.put(config.getDeviceId(), plan);
+		}
+		InverterDataType type = config.getLRIDefinition().getData();
+		if (type != InverterDataType.None) {
+			plan.dataTypes.add(type);
+			plan.lris.add(config.getLRIDefinition());
+		}
+		plan.items.add(new ItemBinding(itemName, itemType, config));
+	}
+
+	public Collection<DevicePlan> getDevicePlans() {
+		return plans.values();
+	}
+
+	/**
+	 * @return the device plans grouped by the physical link of their
+	 *         devices, the links can be polled concurrently
+	 */
+	public Collection<List<DevicePlan>> getLinks() {
+		Map<String, List<DevicePlan>> links = new LinkedHashMap<String, List<DevicePlan>>();
+		for (DevicePlan plan : plans.values()) {
+			String connectionId = plan.getDevice().getConnectionId();
+			List<DevicePlan> link = links.get(connectionId);
+			if (link == null) {
+				link = new ArrayList<DevicePlan>();
+				links.put(connectionId, link);
+			}
+			link.add(plan);
+		}
+		return links.values();
+	}
+
+	/**
+	 * all data types and items of one device
+	 */
+	public static class DevicePlan {
+		private final String deviceId;
+		private final SmaDevice device;
+		private final Set<InverterDataType> dataTypes = EnumSet
+				.noneOf(InverterDataType.class);
+		private final Set<LRIDefinition> lris = EnumSet
+				.noneOf(LRIDefinition.class);
+		private final List<ItemBinding> items = new ArrayList<ItemBinding>();
+
+		DevicePlan(String deviceId, SmaDevice device) {
+			this.deviceId = deviceId;
+			this.device = device;
+		}
+
+		public String getDeviceId() {
+			return deviceId;
+		}
+
+		public SmaDevice getDevice() {
+			return device;
+		}
+
+		public Set<InverterDataType> getDataTypes() {
+			return dataTypes;
+		}
+
+		/**
+		 * @return the LRIs bound to items
+		 */
+		public Set<LRIDefinition> getLRIs() {
+			return lris;
+		}
+
+		public List<ItemBinding> getItems() {
+			return items;
+		}
+
+		@Override
+		public String toString() {
+			return "DevicePlan [deviceId=" + deviceId + ", dataTypes="
+					+ dataTypes + ", items=" + items.size() + "]";
+		}
+	}
+
+	/**
+	 * a single item bound to a device
+	 */
+	public static class ItemBinding {
+		private final String itemName;
+		private final Class<? extends Item> itemType;
+		private final SmaBindingConfig config;
+
+		ItemBinding(String itemName, Class<? extends Item> itemType,
+				SmaBindingConfig config) {
+			this.itemName = itemName;
+			this.itemType = itemType;
+			this.config = config;
+		}
+
+		public String getItemName() {
+			return itemName;
+		}
+
+		public Class<? extends Item> getItemType() {
+			return itemType;
+		}
+
+		public SmaBindingConfig getConfig() {
+			return config;
+		}
+	}
+}
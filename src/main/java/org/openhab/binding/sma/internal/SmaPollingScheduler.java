@@ -0,0 +1,182 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.InverterDataType;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.LRIDefinition;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.SmaStatus;
+
+/**
+ * Decides which {@link InverterDataType}s of a device are due in a refresh
+ * cycle.
+ *
+ * Every data type has its own cadence, which defaults to the refresh interval
+ * of the binding, except the nameplate data which is read once a day. The
+ * cadences can be set in openhab.cfg by
+ * <code>sma:refresh.&lt;InverterDataType&gt;=&lt;intervalInMs&gt;</code>.
+ *
+ * While an inverter is asleep (device status off, grid relay open or not
+ * reachable at all) all data types are polled with the slow cadence
+ * <code>sma:refresh.asleep=&lt;intervalInMs&gt;</code> only.
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public class SmaPollingScheduler {
+
+	/**
+	 * default cadence (in ms) of data types that hardly ever change
+	 */
+	public static final long DAILY = 24 * 60 * 60 * 1000L;
+
+	/**
+	 * default cadence (in ms) while the inverter is asleep
+	 */
+	public static final long DEFAULT_ASLEEP_INTERVAL = 10 * 60 * 1000L;
+
+	private final long defaultInterval;
+	private final Map<InverterDataType, Long> cadences = new EnumMap<InverterDataType, Long>(
+			InverterDataType.class);
+	private long asleepInterval = DEFAULT_ASLEEP_INTERVAL;
+
+	private final Map<String, DeviceSchedule> schedules = new HashMap<String, DeviceSchedule>();
+
+	/**
+	 * @param defaultInterval
+	 *            cadence (in ms) of all data types without own cadence
+	 */
+	public SmaPollingScheduler(long defaultInterval) {
+		this.defaultInterval = defaultInterval;
+
+		cadences.put(InverterDataType.TypeLabel, DAILY);
+		cadences.put(InverterDataType.SoftwareVersion, DAILY);
+		cadences.put(InverterDataType.MaxACPower, DAILY);
+		cadences.put(InverterDataType.MaxACPower2, DAILY);
+	}
+
+	public void setCadence(InverterDataType type, long interval) {
+		cadences.put(type, interval);
+	}
+
+	public long getCadence(InverterDataType type) {
+		Long interval = cadences.get(type);
+		return interval != null ? interval : defaultInterval;
+	}
+
+	public void setAsleepInterval(long asleepInterval) {
+		this.asleepInterval = asleepInterval;
+	}
+
+	/**
+	 * @return the interval (in ms) the scheduler has to be asked for due
+	 *         data types, i.e. the shortest cadence
+	 */
+	public long getTick() {
+		long tick = defaultInterval;
+		for (Long interval : cadences.values()) {
+			tick = Math.min(tick, interval);
+		}
+		return Math.max(tick, 1000);
+	}
+
+	/**
+	 * @param deviceId
+	 *            the id of the device
+	 * @param types
+	 *            all data types needed by the items of the device
+	 * @param now
+	 *            current time in ms
+	 * @return the data types which are due now
+	 */
+	public synchronized Set<InverterDataType> getDueTypes(String deviceId,
+			Set<InverterDataType> types, long now) {
+		DeviceSchedule schedule = getSchedule(deviceId);
+		Set<InverterDataType> due = EnumSet.noneOf(InverterDataType.class);
+		if (types.isEmpty())
+			return due;
+
+		// the device status is needed to detect a sleeping inverter
+		Set<InverterDataType> wanted = EnumSet.copyOf(types);
+		wanted.add(InverterDataType.DeviceStatus);
+
+		for (InverterDataType type : wanted) {
+			// half a tick early is in time, the binding thread sleeps after
+			// the cycle
+			if (schedule.due[type.ordinal()] <= now + getTick() / 2)
+				due.add(type);
+		}
+		return due;
+	}
+
+	/**
+	 * Schedules the next query of the given data types after they were polled
+	 *
+	 * @param deviceId
+	 *            the id of the device
+	 * @param device
+	 *            the device or <code>null</code> if it was not reachable
+	 * @param types
+	 *            the polled data types
+	 * @param now
+	 *            time of the poll in ms
+	 */
+	public synchronized void polled(String deviceId, SmaDevice device,
+			Set<InverterDataType> types, long now) {
+		DeviceSchedule schedule = getSchedule(deviceId);
+		schedule.asleep = device == null || isAsleep(device);
+
+		for (InverterDataType type : types) {
+			long interval = getCadence(type);
+			if (schedule.asleep)
+				interval = Math.max(interval, asleepInterval);
+			schedule.due[type.ordinal()] = now + interval;
+		}
+	}
+
+	public synchronized boolean isAsleep(String deviceId) {
+		DeviceSchedule schedule = schedules.get(deviceId);
+		return schedule != null && schedule.asleep;
+	}
+
+	/**
+	 * @return <code>true</code> if the last status read from the device says
+	 *         it is not feeding in
+	 */
+	public static boolean isAsleep(SmaDevice device) {
+		if (device.isValid(LRIDefinition.OperationHealth)
+				&& device.getStatus(LRIDefinition.OperationHealth) == SmaStatus.Off)
+			return true;
+		if (device.isValid(LRIDefinition.OperationGriSwStt)
+				&& device.getStatus(LRIDefinition.OperationGriSwStt) == SmaStatus.Open)
+			return true;
+		return false;
+	}
+
+	private DeviceSchedule getSchedule(String deviceId) {
+		DeviceSchedule schedule = schedules.get(deviceId);
+		if (schedule == null) {
+			schedule = new DeviceSchedule();
+			schedules.put(deviceId, schedule);
+		}
+		return schedule;
+	}
+
+	private static class DeviceSchedule {
+		// next time (in ms) each data type is due, indexed by ordinal
+		private final long[] due = new long[InverterDataType.values().length];
+		private boolean asleep = false;
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.LRIDefinition;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.SmaStatus;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.ValueUnit;
+import org.openhab.core.items.Item;
+import org.openhab.core.library.items.ContactItem;
+import org.openhab.core.library.items.NumberItem;
+import org.openhab.core.library.items.StringItem;
+import org.openhab.core.library.items.SwitchItem;
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.library.types.OnOffType;
+import org.openhab.core.library.types.OpenClosedType;
+import org.openhab.core.library.types.StringType;
+import org.openhab.core.types.State;
+
+/**
+ * Converts the values of a {@link SmaDevice} into openHAB {@link State}s.
+ *
+ * Numbers are scaled from the raw value by their {@link ValueUnit} without
+ * going through a String. The States of status values are immutable and
+ * created only once.
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public final class SmaStateConverter {
+
+	private static final Map<SmaStatus, State> statusStates = new EnumMap<SmaStatus, State>(
+			SmaStatus.class);
+	private static final Map<SmaStatus, State> statusNumbers = new EnumMap<SmaStatus, State>(
+			SmaStatus.class);
+
+	static {
+		for (SmaStatus status : SmaStatus.values()) {
+			statusStates.put(status, new StringType(status.name()));
+			statusNumbers.put(status, new DecimalType(status.getValue()));
+		}
+	}
+
+	private SmaStateConverter() {
+	}
+
+	/**
+	 * @return the state of the value for the given item type or
+	 *         <code>null</code> if the value is not valid or the item type is
+	 *         not supported
+	 */
+	public static State toState(SmaDevice dev, LRIDefinition lri,
+			Class<? extends Item> itemType) {
+		if (!dev.isValid(lri))
+			return null;
+
+		ValueUnit unit = ValueUnit.of(lri);
+
+		if (itemType.isAssignableFrom(SwitchItem.class)) {
+			if (unit == ValueUnit.Status)
+				return isOn(dev.getStatus(lri)) ? OnOffType.ON : OnOffType.OFF;
+			return dev.getValue(lri) != 0 ? OnOffType.ON : OnOffType.OFF;
+		} else if (itemType.isAssignableFrom(ContactItem.class)) {
+			if (unit == ValueUnit.Status)
+				return dev.getStatus(lri) == SmaStatus.Open ? OpenClosedType.OPEN
+						: OpenClosedType.CLOSED;
+			return dev.getValue(lri) != 0 ? OpenClosedType.CLOSED
+					: OpenClosedType.OPEN;
+		} else if (itemType.isAssignableFrom(NumberItem.class)) {
+			if (unit == ValueUnit.Status) {
+				State state = statusNumbers.get(dev.getStatus(lri));
+				if (state != null)
+					return state;
+			}
+			return new DecimalType(unit.toDecimal(dev.getValue(lri)));
+		} else if (itemType.isAssignableFrom(StringItem.class)) {
+			if (unit == ValueUnit.Status) {
+				State state = statusStates.get(dev.getStatus(lri));
+				if (state != null)
+					return state;
+			}
+			return new StringType(dev.getValueAsString(lri));
+		}
+
+		return null;
+	}
+
+	private static boolean isOn(SmaStatus status) {
+		return status == SmaStatus.Ok || status == SmaStatus.Closed;
+	}
+}
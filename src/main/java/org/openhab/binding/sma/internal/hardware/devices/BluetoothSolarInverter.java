@@ -1,7 +1,5 @@
 package org.openhab.binding.sma.internal.hardware.devices;
 
-import java.io.IOException;
-
 import org.openhab.binding.sma.internal.SmaBinding.Device;
 import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.InverterDataType;
 import org.openhab.binding.sma.internal.layers.Bluetooth;
@@ -20,9 +18,12 @@ public class BluetoothSolarInverter extends BluetoothSolarInverterPlant {
 		super(address);
 	}
 	*/
+	/**
+	 * a single inverter is a plant of its own, connected directly
+	 */
 	@Override
-	public void init() throws IOException {
-		this.layer = new Bluetooth(device.getBTAdress());
+	protected Bluetooth createLayer() {
+		return new Bluetooth(device.getBTAdress());
 	}
 	
 }
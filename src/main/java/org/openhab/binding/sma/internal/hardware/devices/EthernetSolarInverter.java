@@ -1,43 +1,399 @@
 package org.openhab.binding.sma.internal.hardware.devices;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 import org.openhab.binding.sma.internal.SmaBinding;
+import org.openhab.binding.sma.internal.layers.AbstractPhysicalLayer;
+import org.openhab.binding.sma.internal.layers.IP;
+import org.openhab.binding.sma.internal.layers.PacketView;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * Inverter with an ethernet interface, connected by Speedwire.
+ *
+ * The requests of all data types of a refresh cycle are sent at once and
+ * their responses are matched by the packet id as they arrive.
+ *
+ * The inverter is configured by its host or by its serial. The address of
+ * the host is resolved, the address of the serial is looked up in the
+ * {@link SpeedwireDiscovery} whenever the inverter is initialised, so a
+ * changed address is picked up with the next connect.
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
 public class EthernetSolarInverter extends SolarInverter {
 
+	private static final Logger logger = LoggerFactory
+			.getLogger(EthernetSolarInverter.class);
+
+	/**
+	 * defines valid LRIs for that kind of device
+	 */
+	private static final List<LRIDefinition> validLRIDefinition;
+
+	static {
+		List<LRIDefinition> valid = new ArrayList<LRIDefinition>();
+		for (LRIDefinition lri : LRIDefinition.values()) {
+			if (lri.getData() != InverterDataType.None)
+				valid.add(lri);
+		}
+		validLRIDefinition = Collections.unmodifiableList(valid);
+	}
+
+	// error code of a logon with a wrong password
+	private static final short INVALID_PASSWORD = 0x0100;
+
+	private volatile boolean isInit = false;
+
+	protected IP layer;
+
+	// reused for decoding all received data packets
+	private final PacketView packet = new PacketView();
+
+	// the requests in flight
+	private final SmaRequestTable requests = new SmaRequestTable();
+
 	public EthernetSolarInverter(SmaBinding.Device dev) {
 		super(dev);
 	}
 
 	@Override
 	public void init() throws IOException {
-		// TODO Auto-generated method stub
+		// a download or the keep-alive of the session may use the layer
+		synchronized (getSession()) {
+			if (isInit) {
+				return;
+			}
+
+			InetAddress address = resolve();
+			if (layer == null || !address.equals(layer.getAddress())) {
+				if (layer != null) {
+					logger.info("inverter {} moved from {} to {}",
+							device.getConnectionId(), layer.getAddress(),
+							address);
+					layer.close();
+				}
+				layer = new IP(address);
+				if (device.getTimeout() > 0)
+					layer.setTimeout(device.getTimeout());
+			}
+			if (data == null) {
+				data = new EthernetSolarInverter.Data(address);
+			} else {
+				((EthernetSolarInverter.Data) data).address = address;
+			}
+
+			try {
+				layer.open();
+
+				// query SUSyID and serial of the inverter
+				short id = layer.sendRequest(0x00000200, 0x0, 0x0,
+						AbstractPhysicalLayer.ANYSUSYID,
+						AbstractPhysicalLayer.ANYSERIAL);
+
+				PacketView response = packet.wrap(layer.receive(id,
+						layer.getTimeout()));
+				SmaSerial serial = new SmaSerial(response.getSUSyID(),
+						response.getSerial());
+				if (device.getSerial() != 0
+						&& serial.getSerial() != device.getSerial()) {
+					throw new IOException("found inverter " + serial.getSerial()
+							+ " at " + address + " instead of "
+							+ device.getSerial());
+				}
+				setSerial(serial);
+				logger.debug("found SMA Inverter {}", data);
+
+				isInit = true;
+			} catch (IOException e) {
+				logger.error("can't initialize inverter {}: {}",
+						device.getConnectionId(), e.getMessage());
+				disconnect();
+				throw e;
+			}
+		}
 	}
 
-	@Override
-	public String getValueAsString(LRIDefinition element) {
-		// TODO Auto-generated method stub
-		return "";
+	/**
+	 * @return the address of the configured host or of the discovered
+	 *         inverter of the configured serial
+	 */
+	private InetAddress resolve() throws IOException {
+		if (device.getSerial() == 0)
+			return InetAddress.getByName(device.getHost());
+
+		SpeedwireDiscovery discovery = device.getDiscovery();
+		if (discovery == null)
+			throw new IOException("no discovery of inverter "
+					+ device.getSerial());
+
+		InetAddress address;
+		try {
+			address = discovery.lookup(device.getSerial(),
+					device.getTimeout() > 0 ? device.getTimeout()
+							: IP.DEFAULT_TIMEOUT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("discovery of inverter "
+					+ device.getSerial() + " interrupted");
+		}
+		if (address == null)
+			throw new IOException("inverter " + device.getSerial()
+					+ " not discovered");
+		return address;
 	}
 
+	/**
+	 * Drops the connection after a communication error. The next
+	 * {@link #init()} connects and logs on again.
+	 */
 	@Override
-	protected String getInverterData(InverterDataType energyproduction) {
-		return "";
-		// TODO Auto-generated method stub
+	protected void disconnect() {
+		synchronized (getSession()) {
+			isInit = false;
+			if (layer != null) {
+				layer.close();
+			}
+			// the inverter may have got another address
+			if (device.getSerial() != 0 && device.getDiscovery() != null) {
+				device.getDiscovery().invalidate(device.getSerial());
+			}
+			if (session != null) {
+				session.expire();
+			}
+		}
 	}
 
 	@Override
 	public void logon(SmaUserGroup userGroup, String password)
 			throws IOException {
-		// TODO Auto-generated method stub
-		
+		logger.debug("logon SMA Inverter {}", device.getConnectionId());
+
+		layer.open();
+		byte pw[] = encodePassword(userGroup, password);
+		int now = (int) (System.currentTimeMillis() / 1000);
+
+		short id = layer.beginRequest((byte) 0x0E, (byte) 0xA0,
+				(short) 0x0100, AbstractPhysicalLayer.ANYSUSYID,
+				AbstractPhysicalLayer.ANYSERIAL);
+		layer.write(0xFFFD040C);
+		layer.write(userGroup.getValue()); // User / Installer
+		layer.write(SmaSession.LOGON_TIMEOUT);
+		layer.write(now);
+		layer.write(0x0);
+		layer.write(pw, pw.length);
+		layer.sendRequest();
+
+		PacketView response = packet.wrap(layer.receive(id,
+				layer.getTimeout()));
+		short retcode = response.getErrorCode();
+		if (retcode == INVALID_PASSWORD) {
+			throw new IOException("logon to " + device.getConnectionId()
+					+ " failed: invalid password");
+		} else if (retcode != 0) {
+			throw new IOException("logon to " + device.getConnectionId()
+					+ " failed: error 0x" + AbstractPhysicalLayer.toHex(retcode));
+		}
 	}
 
 	@Override
 	public void logoff() throws IOException {
-		// TODO Auto-generated method stub
-		
+		if (layer == null || !layer.isOpen()) {
+			return;
+		}
+
+		logger.debug("logoff SMA Inverter {}", device.getConnectionId());
+		layer.beginRequest((byte) 0x08, (byte) 0xA0, (short) 0x0300,
+				AbstractPhysicalLayer.ANYSUSYID,
+				AbstractPhysicalLayer.ANYSERIAL);
+		layer.write(0xFFFD010E);
+		layer.write(0xFFFFFFFF);
+		layer.sendRequest();
+	}
+
+	/**
+	 * Sends all queries and collects their responses as they arrive.
+	 */
+	@Override
+	protected void requestInverterData(List<SmaQuery> queries)
+			throws IOException {
+		SmaSerial serial = getSerial();
+		List<SmaSerial> expected = Collections.singletonList(serial);
+		boolean rejected = false;
+		int retries = 0;
+		requests.clear();
+
+		try {
+			for (SmaQuery query : queries) {
+				for (InverterDataType type : query.getTypes()) {
+					data.invalidate(type);
+				}
+
+				requests.add(sendRequest(query), query, expected);
+			}
+
+			long deadline = System.currentTimeMillis() + layer.getTimeout();
+			while (!requests.isEmpty()) {
+				PacketView response;
+				try {
+					response = packet.wrap(layer.receive(Math.max(1, deadline
+							- System.currentTimeMillis())));
+				} catch (SocketTimeoutException e) {
+					if (retries >= device.getRetry())
+						throw e;
+
+					retries++;
+					for (SmaRequestTable.Request request : requests
+							.getRequests()) {
+						logger.debug("{}, sending {} again ({}/{})",
+								e.getMessage(), request, retries,
+								device.getRetry());
+						requests.resent(request,
+								sendRequest(request.getQuery()));
+					}
+					deadline = System.currentTimeMillis() + layer.getTimeout();
+					continue;
+				}
+
+				SmaRequestTable.Request request = requests.match(
+						response.getPacketID(),
+						new SmaSerial(response.getSUSyID(), response
+								.getSerial()));
+				if (request == null) {
+					logger.debug("discarding stale response {}",
+							response.getPacketID());
+					continue;
+				}
+
+				short retcode = response.getErrorCode();
+				if (retcode != 0) {
+					// the types of the query stay invalid, the responses to
+					// the other queries are kept
+					logger.debug("request {} rejected by {} (error 0x{})",
+							request.getQuery(), data,
+							AbstractPhysicalLayer.toHex(retcode));
+					if (SmaSession.isLogonLost(retcode))
+						rejected = true;
+					continue;
+				}
+
+				LRIDecoder.decodeRecords(response, data, request.getQuery()
+						.getRecordSize());
+			}
+		} catch (IOException e) {
+			logger.error("unable to communicate with device: {}",
+					e.getMessage());
+			disconnect();
+			throw e;
+		} finally {
+			requests.clear();
+		}
+
+		if (rejected) {
+			throw new SmaSessionExpiredException("request rejected by "
+					+ device.getConnectionId());
+		}
+	}
+
+	@Override
+	protected AbstractPhysicalLayer getPhysicalLayer() {
+		return layer;
+	}
+
+	@Override
+	protected PacketView receivePacket() throws IOException {
+		return packet.wrap(layer.receive(layer.getTimeout()));
+	}
+
+	@Override
+	protected Collection<SmaSerial> getInverterSerials() {
+		return Collections.singletonList(getSerial());
+	}
+
+	/**
+	 * sends a query to the inverter
+	 *
+	 * @return the packet id of the request
+	 */
+	private short sendRequest(SmaQuery query) throws IOException {
+		SmaSerial serial = getSerial();
+		return layer.sendRequest(query.getCommand(), query.getFirst(),
+				query.getLast(), serial.getSUSyID(), (int) serial.getSerial());
+	}
+
+	@Override
+	public List<LRIDefinition> getValidLRIDefinitions() {
+		return EthernetSolarInverter.validLRIDefinition;
+	}
+
+	@Override
+	public String getValueAsString(LRIDefinition element) {
+		return data != null ? data.getValue(element) : null;
+	}
+
+	@Override
+	public boolean isValid(LRIDefinition element) {
+		return data != null && data.isValid(element);
+	}
+
+	@Override
+	public long getValue(LRIDefinition element) {
+		return isValid(element) ? data.getRawValue(element) : 0;
+	}
+
+	@Override
+	public double getDoubleValue(LRIDefinition element) {
+		return ValueUnit.of(element).toDouble(getValue(element));
+	}
+
+	@Override
+	public SmaStatus getStatus(LRIDefinition element) {
+		return isValid(element) ? SmaStatus.fromValue(data
+				.getRawValue(element)) : null;
+	}
+
+	@Override
+	public void close() {
+		synchronized (getSession()) {
+			super.close();
+			if (layer != null) {
+				layer.close();
+			}
+			isInit = false;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "EthernetSolarInverter [address=" + device.getConnectionId()
+				+ ", data=" + data + "]";
+	}
+
+	public static class Data extends SolarInverter.Data {
+		protected InetAddress address;
+
+		public Data(InetAddress address) {
+			super();
+
+			this.address = address;
+		}
+
+		public InetAddress getAddress() {
+			return address;
+		}
+
+		@Override
+		public String toString() {
+			return "address=" + address + ", " + super.toString();
+		}
 	}
 }
@@ -0,0 +1,294 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.hardware.devices;
+
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.LRIDefinition;
+import org.openhab.binding.sma.internal.layers.PacketView;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decodes the LRI records of a data response.
+ *
+ * All {@link LRIDefinition}s are precomputed into a table keyed by the 24 bit
+ * LRI code (LRI and class) of a record. The table has two levels indexed by
+ * the high and the low byte of the LRI, so a record is decoded by a few array
+ * lookups without any hashing or boxing.
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public final class LRIDecoder {
+	private static final Logger logger = LoggerFactory
+			.getLogger(LRIDecoder.class);
+
+	// data types of a record (highest byte of the code)
+	public static final int DT_ULONG = 0x00;
+	public static final int DT_STATUS = 0x08;
+	public static final int DT_STRING = 0x10;
+	public static final int DT_SLONG = 0x40;
+
+	// end of the attribute list of a status record
+	private static final int END_OF_ATTRIBUTES = 0xFFFFFE;
+
+	/**
+	 * width of the value of a record
+	 */
+	public enum Width {
+		DWORD(28), QWORD(16), TEXT(40), STATUS(40), VERSION(40);
+
+		private final int recordSize;
+
+		private Width(int recordSize) {
+			this.recordSize = recordSize;
+		}
+
+		public int getRecordSize() {
+			return recordSize;
+		}
+	}
+
+	/**
+	 * decoding rule of one LRI
+	 */
+	public static final class Entry {
+		private final LRIDefinition lri;
+		private final Width width;
+		private final boolean nanToZero;
+
+		private Entry(LRIDefinition lri, Width width, boolean nanToZero) {
+			this.lri = lri;
+			this.width = width;
+			this.nanToZero = nanToZero;
+		}
+
+		public LRIDefinition getLRIDefinition() {
+			return lri;
+		}
+
+		public Width getWidth() {
+			return width;
+		}
+
+		public int getRecordSize() {
+			return width.getRecordSize();
+		}
+
+		/**
+		 * @return <code>true</code> if "not a number" is stored as 0,
+		 *         otherwise the last valid value is kept
+		 */
+		public boolean isNanToZero() {
+			return nanToZero;
+		}
+
+		/**
+		 * decodes the current record of the packet into the inverter data
+		 */
+		public void decode(PacketView record, SolarInverter.Data target) {
+			switch (width) {
+			case QWORD: {
+				long value = record.getLong(8);
+				if ((value == SmaDevice.NaN_S64)
+						|| (value == SmaDevice.NaN_U64)) {
+					if (!nanToZero) {
+						target.keepValue(lri);
+						return;
+					}
+					value = 0;
+				}
+				target.setValue(lri, value, record.getTimestamp());
+				break;
+			}
+			case DWORD: {
+				int value = record.getInt(8);
+				if ((value == SmaDevice.NaN_S32)
+						|| (value == SmaDevice.NaN_U32)) {
+					if (!nanToZero) {
+						target.keepValue(lri);
+						return;
+					}
+					value = 0;
+				}
+				target.setValue(lri,
+						record.getDataType() == DT_SLONG ? value
+								: value & 0xFFFFFFFFL, record.getTimestamp());
+				break;
+			}
+			case STATUS:
+				for (int idx = 8; idx < width.getRecordSize(); idx += 4) {
+					int attribute = record.getInt(idx) & 0x00FFFFFF;
+					if (attribute == END_OF_ATTRIBUTES)
+						break;
+					if (record.get(idx + 3) == 1) {
+						target.setValue(lri, attribute, record.getTimestamp());
+						break;
+					}
+				}
+				break;
+			case TEXT:
+				target.setText(lri, record.getString(8, 32),
+						record.getTimestamp());
+				break;
+			case VERSION: {
+				int vType = record.get(24);
+				int vBuild = record.get(25) & 0xFF;
+				int vMinor = record.get(26) & 0xFF;
+				int vMajor = record.get(27) & 0xFF;
+
+				// NOREV-EXPERIMENTAL-ALPHA-BETA-RELEASE-SPECIAL
+				String releaseType = (vType >= 0 && vType <= 5) ? String
+						.valueOf("NEABRS".charAt(vType)) : Integer
+						.toString(vType);
+				// major and minor are BCD coded
+				target.setText(lri, String.format("%x%x.%x%x.%02d.%s",
+						vMajor >> 4, vMajor & 0x0F, vMinor >> 4, vMinor & 0x0F,
+						vBuild, releaseType), record.getTimestamp());
+				break;
+			}
+			}
+
+			if (logger.isDebugEnabled()) {
+				logger.debug("{}: {}", lri, record.getDate());
+			}
+		}
+	}
+
+	private static final Entry[][][] table = new Entry[256][][];
+
+	static {
+		for (LRIDefinition lri : LRIDefinition.values()) {
+			int code = lri.getValue();
+			int page = (code >>> 16) & 0xFF;
+			int slot = (code >>> 8) & 0xFF;
+			int cls = code & 0xFF;
+
+			if (table[page] == null)
+				table[page] = new Entry[256][];
+
+			Entry[] variants = table[page][slot];
+			if (variants == null || variants.length <= cls) {
+				Entry[] grown = new Entry[cls + 1];
+				if (variants != null)
+					System.arraycopy(variants, 0, grown, 0, variants.length);
+				variants = grown;
+				table[page][slot] = variants;
+			}
+
+			Width width = widthOf(lri);
+			// counters keep their last value instead of dropping to zero
+			variants[cls] = new Entry(lri, width, width != Width.QWORD);
+		}
+	}
+
+	private LRIDecoder() {
+	}
+
+	/**
+	 * Looks up the decoding rule of a record. A rule without class matches
+	 * all classes of its LRI.
+	 *
+	 * @param code
+	 *            the code of the record
+	 * @return the rule or <code>null</code> if the LRI is unknown
+	 */
+	public static Entry lookup(int code) {
+		Entry[][] page = table[(code >>> 16) & 0xFF];
+		if (page == null)
+			return null;
+
+		Entry[] variants = page[(code >>> 8) & 0xFF];
+		if (variants == null)
+			return null;
+
+		if (variants[0] != null)
+			return variants[0];
+
+		int cls = code & 0xFF;
+		return cls < variants.length ? variants[cls] : null;
+	}
+
+	/**
+	 * Decodes all records of a data response into the inverter data. Unknown
+	 * LRIs are skipped.
+	 * 
+	 * @param recordsize
+	 *            size of the records of the query or 0 if unknown, used for
+	 *            records of unknown LRIs
+	 */
+	public static void decodeRecords(PacketView data,
+			SolarInverter.Data target, int recordsize) {
+		for (data.firstRecord(); data.hasRecord(PacketView.CODELENGTH); data
+				.nextRecord(recordsize)) {
+			int code = data.getCode();
+			Entry entry = lookup(code);
+
+			if (entry != null) {
+				recordsize = entry.getRecordSize();
+			} else if (recordsize == 0) {
+				recordsize = recordSize(code);
+			}
+
+			// the layout of the record doesn't match the table or the size
+			// of an unknown LRI is guessed wrong
+			if (!data.hasRecord(recordsize)) {
+				logger.debug("record 0x{} of {} bytes at {} exceeds the packet",
+						Integer.toHexString(code), recordsize,
+						data.getRecordOffset());
+				return;
+			}
+
+			if (entry != null)
+				entry.decode(data, target);
+		}
+	}
+
+	/**
+	 * guesses the size of a record of an unknown LRI by its data type
+	 */
+	public static int recordSize(int code) {
+		int dataType = code >>> 24;
+		return (dataType == DT_STATUS || dataType == DT_STRING) ? Width.TEXT
+				.getRecordSize() : Width.DWORD.getRecordSize();
+	}
+
+	private static Width widthOf(LRIDefinition lri) {
+		switch (lri) {
+		// we can't rely on the data type of the record because it
+		// can be both 0x00 or 0x40 for DWORDs
+		case MeteringTotWhOut:
+		case MeteringDyWhOut:
+		case MeteringPvMsTotWhOut:
+		case MeteringGridMsTotWhOut:
+		case MeteringGridMsTotWhIn:
+		case MeteringCsmpTotWhIn:
+		case MeteringGridMsDyWhOut:
+		case MeteringGridMsDyWhIn:
+		case MeteringTotOpTms:
+		case MeteringTotFeedTms:
+		case MeteringGriFailTms:
+		case MeteringWhIn:
+		case MeteringWhOut:
+		case MeteringSelfCsmpSelfCsmpWh:
+			return Width.QWORD;
+		case OperationHealth:
+		case OperationGriSwStt:
+		case NameplateMainModel:
+		case NameplateModel:
+		case NameplateAvalGrpUsr:
+			return Width.STATUS;
+		case NameplateLocation:
+			return Width.TEXT;
+		case NameplatePkgRev:
+			return Width.VERSION;
+		default:
+			return Width.DWORD;
+		}
+	}
+}
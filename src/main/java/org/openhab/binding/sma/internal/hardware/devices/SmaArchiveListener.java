@@ -0,0 +1,30 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.hardware.devices;
+
+/**
+ * Receives the records of an archive as they are downloaded, in the order of
+ * their timestamps.
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public interface SmaArchiveListener {
+
+	/**
+	 * @param serial
+	 *            the inverter of the record
+	 * @param timestamp
+	 *            time of the record in seconds since the epoch
+	 * @param totalWh
+	 *            total yield in Wh
+	 */
+	void archived(SmaSerial serial, SmaArchiveType type, int timestamp,
+			long totalWh);
+}
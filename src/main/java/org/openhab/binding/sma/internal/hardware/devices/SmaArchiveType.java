@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.hardware.devices;
+
+/**
+ * The archives of the yield kept by an inverter.
+ *
+ * A record of an archive is the timestamp (seconds since the epoch, 4 bytes)
+ * followed by the total yield in Wh (8 bytes), padded to the record size of
+ * the archive.
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public enum SmaArchiveType {
+	/**
+	 * total yield every 5 minutes
+	 */
+	Day(0x70000200, 12, 300, 86400, 2 * 86400),
+
+	/**
+	 * total yield at the end of every day
+	 */
+	Month(0x70200200, 24, 86400, 31 * 86400, 62 * 86400);
+
+	private final int command;
+	private final int recordSize;
+	private final int interval;
+	private final int span;
+	private final int backfill;
+
+	private SmaArchiveType(int command, int recordSize, int interval,
+			int span, int backfill) {
+		this.command = command;
+		this.recordSize = recordSize;
+		this.interval = interval;
+		this.span = span;
+		this.backfill = backfill;
+	}
+
+	public int getCommand() {
+		return command;
+	}
+
+	public int getRecordSize() {
+		return recordSize;
+	}
+
+	/**
+	 * @return the time (in s) between two records
+	 */
+	public int getInterval() {
+		return interval;
+	}
+
+	/**
+	 * @return the max time (in s) covered by one request
+	 */
+	public int getSpan() {
+		return span;
+	}
+
+	/**
+	 * @return the time (in s) downloaded when an inverter is read the first
+	 *         time
+	 */
+	public int getBackfill() {
+		return backfill;
+	}
+
+	/**
+	 * @return the name of the cursor of the archive in the
+	 *         {@link SmaCursorStore}
+	 */
+	public String getCursorName() {
+		return "archive." + name().toLowerCase();
+	}
+}
@@ -1,5 +1,7 @@
 package org.openhab.binding.sma.internal.hardware.devices;
 
+import java.nio.ByteBuffer;
+
 
 public class SmaBluetoothAddress {
 	public static final SmaBluetoothAddress BROADCAST = new SmaBluetoothAddress("FF:FF:FF:FF:FF:FF");
@@ -28,6 +30,11 @@ public class SmaBluetoothAddress {
 		this.setAddress(data, start);
 	}
 
+	public SmaBluetoothAddress(ByteBuffer data, int start) {
+		this.address = new byte[6];
+		this.setAddress(data, start);
+	}
+
 	public SmaBluetoothAddress(String address) {
 		this(address, 1);
 	}
@@ -42,6 +49,11 @@ public class SmaBluetoothAddress {
 		//System.arraycopy(src, start, address, 0, 6);
 	}
 	
+	public final void setAddress(ByteBuffer src, int start) {
+		for (int i = 0; i < 6; i++)
+			address[i] = src.get(start + i);
+	}
+
 	public final void setBigEndianAddress(byte[] src, int start) {
 		address[0] = src[start + 5];
 		address[1] = src[start + 4];
@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.hardware.devices;
+
+import java.io.File;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the position of every inverter in its logs, so a download continues
+ * after the last record read, also after a restart.
+ *
+ * The cursors are stored in a properties file, keyed by the SUSyID and
+ * serial of the inverter and the name of the log:
+ *
+ * <pre>
+ * 131.2100000000.archive.day=1400000000
+ * 131.2100000000.archive.month=1399939200
+ * </pre>
+ *
+ * Without a file the cursors are kept in memory only.
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public class SmaCursorStore {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(SmaCursorStore.class);
+
+	/**
+	 * name of the file in the data area of the bundle
+	 */
+	public static final String FILE_NAME = "sma-cursors.properties";
+
+	private final SmaPropertiesFile file;
+
+	private final Properties cursors = new Properties();
+
+	/**
+	 * @param file
+	 *            the file of the store or <code>null</code> to keep the
+	 *            cursors in memory only
+	 */
+	public SmaCursorStore(File file) {
+		this.file = new SmaPropertiesFile(file, "cursors");
+		load();
+	}
+
+	/**
+	 * @return the cursor or the given default if the inverter has not been
+	 *         read yet
+	 */
+	public synchronized long get(SmaSerial serial, String name,
+			long defaultValue) {
+		String value = cursors.getProperty(key(serial, name));
+		if (value == null)
+			return defaultValue;
+
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			logger.debug("ignoring cursor {} of {}: {}", name, serial, value);
+			return defaultValue;
+		}
+	}
+
+	public synchronized void put(SmaSerial serial, String name, long value) {
+		String key = key(serial, name);
+		if (String.valueOf(value).equals(cursors.getProperty(key)))
+			return;
+
+		cursors.setProperty(key, String.valueOf(value));
+		save();
+	}
+
+	private static String key(SmaSerial serial, String name) {
+		return serial.getSUSyID() + "." + serial.getSerial() + "." + name;
+	}
+
+	private void load() {
+		Properties properties = file.load();
+		if (properties == null)
+			return;
+
+		cursors.putAll(properties);
+		logger.debug("read {} cursors from {}", cursors.size(), file.getFile());
+	}
+
+	private void save() {
+		file.store(cursors, "last records read from the SMA inverters");
+	}
+}
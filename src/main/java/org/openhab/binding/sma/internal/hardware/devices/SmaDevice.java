@@ -9,14 +9,14 @@
 package org.openhab.binding.sma.internal.hardware.devices;
 
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Set;
 
-import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.LRIDefinition;
 import org.openhab.core.events.EventPublisher;
 
-import com.sun.swing.internal.plaf.synth.resources.synth;
-
 public interface SmaDevice {
 
 	public static final short NaN_S16 = (short) 0x8000;		// "Not a Number" representation for SHORT (converted to 0)
@@ -133,6 +133,148 @@ public interface SmaDevice {
 		}
 	}
 
+	public enum SmaStatus {
+		// INV_STATUS
+		Fault(35), Off(303), Ok(307), Warning(455),
+		// INV_GRIDRELAY
+		Closed(51), Open(311),
+		NotAvailable(16777213);
+
+		private final int value;
+
+		private SmaStatus(int value) {
+			this.value = value;
+		}
+
+		public int getValue() {
+			return value;
+		}
+
+		public static SmaStatus fromValue(long value) {
+			for (SmaStatus status : values()) {
+				if (status.value == value)
+					return status;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Unit of a LRI value and its scaling from the raw value sent by the
+	 * inverter
+	 */
+	public enum ValueUnit {
+		None(0), Watt(0), Volt(2), Amp(3), Hertz(2), KiloWattHour(3), Hour(0), Celsius(2), Status(0);
+
+		// decimal places of the raw value
+		private final int scale;
+
+		private ValueUnit(int scale) {
+			this.scale = scale;
+		}
+
+		/**
+		 * converts a raw value without any loss of precision
+		 */
+		public BigDecimal toDecimal(long value) {
+			if (this == Hour) {
+				// raw value is in seconds
+				return BigDecimal.valueOf(value).divide(SECONDS_PER_HOUR, 3,
+						RoundingMode.HALF_UP);
+			}
+			return BigDecimal.valueOf(value, scale);
+		}
+
+		public double toDouble(long value) {
+			if (this == Hour)
+				return (double) value / 3600;
+			return value / POWERS_OF_TEN[scale];
+		}
+
+		private static final BigDecimal SECONDS_PER_HOUR = BigDecimal
+				.valueOf(3600);
+		private static final double[] POWERS_OF_TEN = new double[] { 1, 10,
+				100, 1000 };
+
+		private static ValueUnit[] units;
+
+		public static ValueUnit of(LRIDefinition lri) {
+			if (units == null) {
+				ValueUnit[] all = new ValueUnit[LRIDefinition.values().length];
+				for (LRIDefinition e : LRIDefinition.values()) {
+					all[e.ordinal()] = lookup(e);
+				}
+				units = all;
+			}
+			return units[lri.ordinal()];
+		}
+
+		private static ValueUnit lookup(LRIDefinition lri) {
+			switch (lri) {
+			case GridMsTotW:
+			case OperationHealthSttOk:
+			case OperationHealthSttWrn:
+			case OperationHealthSttAlm:
+			case DcMsWatt1:
+			case DcMsWatt2:
+			case MeteringPvMsTotWOut:
+			case MeteringGridMsTotWOut:
+			case MeteringGridMsTotWIn:
+			case MeteringCsmpTotWIn:
+			case GridMsWphsA:
+			case GridMsWphsB:
+			case GridMsWphsC:
+			case InverterWLim:
+				return Watt;
+			case DcMsVol1:
+			case DcMsVol2:
+			case GridMsPhVphsA:
+			case GridMsPhVphsB:
+			case GridMsPhVphsC:
+			case BatVol:
+				return Volt;
+			case DcMsAmp1:
+			case DcMsAmp2:
+			case GridMsAphsA_1:
+			case GridMsAphsB_1:
+			case GridMsAphsC_1:
+			case GridMsAphsA:
+			case GridMsAphsB:
+			case GridMsAphsC:
+			case BatAmp:
+				return Amp;
+			case GridMsHz:
+				return Hertz;
+			case MeteringTotWhOut:
+			case MeteringDyWhOut:
+			case MeteringPvMsTotWhOut:
+			case MeteringGridMsTotWhOut:
+			case MeteringGridMsTotWhIn:
+			case MeteringCsmpTotWhIn:
+			case MeteringGridMsDyWhOut:
+			case MeteringGridMsDyWhIn:
+			case MeteringWhIn:
+			case MeteringWhOut:
+			case MeteringSelfCsmpSelfCsmpWh:
+				return KiloWattHour;
+			case MeteringTotOpTms:
+			case MeteringTotFeedTms:
+			case MeteringGriFailTms:
+				return Hour;
+			case CoolsysTmpNom:
+			case BatTmpVal:
+				return Celsius;
+			case OperationHealth:
+			case OperationGriSwStt:
+			case NameplateMainModel:
+			case NameplateModel:
+				return Status;
+			default:
+				return None;
+			}
+		}
+	}
+
 	public enum LRIDefinition {
 		OperationHealth			(0x00214800, "INV_STATUS", InverterDataType.DeviceStatus), // *08* Condition (aka INV_STATUS)
 		CoolsysTmpNom			(0x00237700), // *40* Operating condition temperatures
@@ -148,7 +290,7 @@ public interface SmaDevice {
 		OperationGriSwStt		(0x00416400, "INV_GRIDRELAY", InverterDataType.GridRelayStatus), // *08* Grid relay/contactor (aka INV_GRIDRELAY)
 		OperationRmgTms			(0x00416600), // *00* Waiting time until feed-in
 		DcMsVol1				(0x00451F00, "SPOT_UDC1", InverterDataType.SpotDCVoltage, 1), // *40* DC voltage input (aka SPOT_UDC1  SPOT_UDC2)
-		DcMsVol2				(0x00451F00, "SPOT_UDC1", InverterDataType.SpotDCVoltage, 2), // *40* DC voltage input (aka SPOT_UDC1  SPOT_UDC2)
+		DcMsVol2				(0x00451F00, "SPOT_UDC2", InverterDataType.SpotDCVoltage, 2), // *40* DC voltage input (aka SPOT_UDC1  SPOT_UDC2)
 		DcMsAmp1				(0x00452100, "SPOT_IDC1", InverterDataType.SpotDCVoltage, 1), // *40* DC current input (aka SPOT_IDC1 /SPOT_IDC2)
 		DcMsAmp2				(0x00452100, "SPOT_IDC2", InverterDataType.SpotDCVoltage, 2), // *40* DC current input (aka SPOT_IDC1 /SPOT_IDC2)
 		MeteringPvMsTotWhOut	(0x00462300), // *00* PV generation counter reading
@@ -281,6 +423,90 @@ public interface SmaDevice {
 
 	List<LRIDefinition> getValidLRIDefinitions();
 
+	/**
+	 * Reads all given data types from the device within a single logon
+	 * session. The values are cached and can be fetched afterwards by
+	 * {@link #getValueAsString(LRIDefinition)}.
+	 * 
+	 * @param types
+	 *            the distinct data types to query during this cycle
+	 * @throws IOException
+	 */
+	void readInverterData(Set<InverterDataType> types) throws IOException;
+
+	/**
+	 * Reads the given LRIs of the data types. Ranges of the data types are
+	 * narrowed to the LRIs and merged, to send as few requests as possible.
+	 * 
+	 * @param types
+	 *            the distinct data types to query during this cycle
+	 * @param lris
+	 *            the LRIs needed, other LRIs of the data types may not be
+	 *            read
+	 * @throws IOException
+	 */
+	void readInverterData(Set<InverterDataType> types,
+			Set<LRIDefinition> lris) throws IOException;
+
+	/**
+	 * Reads the records of an archive of all inverters of the device which
+	 * are newer than the last record read. The records are passed to the
+	 * listener as they arrive.
+	 * 
+	 * @throws IOException
+	 */
+	void readArchive(SmaArchiveType type, SmaArchiveListener listener)
+			throws IOException;
+
+	/**
+	 * Reads the entries of the event logs of all inverters of the device
+	 * which are newer than the last entry read. The entries are passed to
+	 * the listener as they arrive.
+	 * 
+	 * @throws IOException
+	 */
+	void readEventLog(SmaEventLogListener listener) throws IOException;
+
+	/**
+	 * Returns the cached value of the last {@link #readInverterData(Set)}
+	 * 
+	 * @param lriDefinition
+	 *            the value to get
+	 * @return the value or <code>null</code> if the value hasn't been read
+	 */
 	String getValueAsString(LRIDefinition lriDefinition);
 
+	/**
+	 * @return <code>true</code> if the value has been read during the last
+	 *         {@link #readInverterData(Set)}
+	 */
+	boolean isValid(LRIDefinition lriDefinition);
+
+	/**
+	 * @return the raw value as sent by the inverter, use
+	 *         {@link ValueUnit#of(LRIDefinition)} to scale it
+	 */
+	long getValue(LRIDefinition lriDefinition);
+
+	/**
+	 * @return the value scaled to its {@link ValueUnit}
+	 */
+	double getDoubleValue(LRIDefinition lriDefinition);
+
+	/**
+	 * @return the status or <code>null</code> if the value is no known status
+	 */
+	SmaStatus getStatus(LRIDefinition lriDefinition);
+
+	/**
+	 * Identifies the physical link of the device. Devices with different
+	 * links can be polled concurrently.
+	 */
+	String getConnectionId();
+
+	/**
+	 * Logs off and releases all resources of the device
+	 */
+	void close();
+
 }
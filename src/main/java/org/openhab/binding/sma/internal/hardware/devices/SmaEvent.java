@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.hardware.devices;
+
+import java.util.Date;
+
+import org.openhab.binding.sma.internal.layers.PacketView;
+
+/**
+ * An entry of the event log of an inverter, e.g. a grid fault, a derating
+ * or a change of a parameter.
+ *
+ * A record of the event log has 48 bytes:
+ *
+ * <pre>
+ *  0 timestamp (4)    4 entry id (2)     6 SUSyID (2)     8 serial (4)
+ * 12 event code (2)  14 flags (2)       16 group (4)      20 unknown (4)
+ * 24 tag (4)         28 counter (4)     32 time of change (4)
+ * 36 parameter (4)   40 new value (4)   44 old value (4)
+ * </pre>
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public class SmaEvent {
+
+	/**
+	 * command to read the event log of the user group
+	 */
+	public static final int USER_LOG = 0x70100200;
+
+	/**
+	 * command to read the event log of the installer group
+	 */
+	public static final int INSTALLER_LOG = 0x70120200;
+
+	public static final int RECORDSIZE = 48;
+
+	/**
+	 * time (in s) read when an inverter is read the first time
+	 */
+	public static final int BACKFILL = 7 * 86400;
+
+	// names of the cursor of the event log in the SmaCursorStore
+	public static final String CURSOR_TIME = "eventlog.time";
+	public static final String CURSOR_ENTRY = "eventlog.entry";
+
+	private final int timestamp;
+	private final int entryID;
+	private final SmaSerial source;
+	private final int eventCode;
+	private final int flags;
+	private final int group;
+	private final int tag;
+	private final int counter;
+	private final int parameter;
+	private final int newValue;
+	private final int oldValue;
+
+	public SmaEvent(int timestamp, int entryID, SmaSerial source,
+			int eventCode, int flags, int group, int tag, int counter,
+			int parameter, int newValue, int oldValue) {
+		this.timestamp = timestamp;
+		this.entryID = entryID;
+		this.source = source;
+		this.eventCode = eventCode;
+		this.flags = flags;
+		this.group = group;
+		this.tag = tag;
+		this.counter = counter;
+		this.parameter = parameter;
+		this.newValue = newValue;
+		this.oldValue = oldValue;
+	}
+
+	/**
+	 * decodes the current record of an event log response
+	 */
+	public static SmaEvent decode(PacketView record) {
+		return new SmaEvent(record.getInt(0), record.getInt(4) & 0xFFFF,
+				new SmaSerial((short) (record.getInt(4) >>> 16),
+						record.getInt(8)), record.getInt(12) & 0xFFFF,
+				record.getInt(12) >>> 16, record.getInt(16),
+				record.getInt(24), record.getInt(28), record.getInt(36),
+				record.getInt(40), record.getInt(44));
+	}
+
+	/**
+	 * @return <code>true</code> if the event has been logged after the entry
+	 *         of the given time and id
+	 */
+	public boolean isAfter(int timestamp, int entryID) {
+		return this.timestamp > timestamp
+				|| (this.timestamp == timestamp && this.entryID > entryID);
+	}
+
+	/**
+	 * @return time of the event in seconds since the epoch
+	 */
+	public int getTimestamp() {
+		return timestamp;
+	}
+
+	public Date getDate() {
+		return new Date(timestamp * 1000L);
+	}
+
+	public int getEntryID() {
+		return entryID;
+	}
+
+	/**
+	 * @return the device which logged the event
+	 */
+	public SmaSerial getSource() {
+		return source;
+	}
+
+	public int getEventCode() {
+		return eventCode;
+	}
+
+	public int getFlags() {
+		return flags;
+	}
+
+	public int getGroup() {
+		return group;
+	}
+
+	public int getTag() {
+		return tag;
+	}
+
+	public int getCounter() {
+		return counter;
+	}
+
+	/**
+	 * @return the parameter changed by the event or 0
+	 */
+	public int getParameter() {
+		return parameter;
+	}
+
+	public int getNewValue() {
+		return newValue;
+	}
+
+	public int getOldValue() {
+		return oldValue;
+	}
+
+	@Override
+	public String toString() {
+		return "SmaEvent [date=" + getDate() + ", entryID=" + entryID
+				+ ", eventCode=" + eventCode + ", flags=0x"
+				+ Integer.toHexString(flags) + ", source=" + source + "]";
+	}
+}
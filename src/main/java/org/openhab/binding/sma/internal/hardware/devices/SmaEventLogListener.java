@@ -0,0 +1,25 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.hardware.devices;
+
+/**
+ * Receives the new entries of an event log as they are downloaded, in the
+ * order they are sent by the inverter.
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public interface SmaEventLogListener {
+
+	/**
+	 * @param serial
+	 *            the inverter whose log contains the event
+	 */
+	void logged(SmaSerial serial, SmaEvent event);
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.hardware.devices;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A properties file in the data area of the bundle, like the
+ * {@link SmaTopologyCache} and the {@link SmaCursorStore}. The file is
+ * replaced at once when it is stored, so a crash can't leave half a file.
+ *
+ * Without a file nothing is read or written.
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+class SmaPropertiesFile {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(SmaPropertiesFile.class);
+
+	private final File file;
+
+	// what the file holds, for the log messages
+	private final String name;
+
+	/**
+	 * @param file
+	 *            the file or <code>null</code> to keep the properties in
+	 *            memory only
+	 * @param name
+	 *            what the file holds, e.g. "topology cache"
+	 */
+	SmaPropertiesFile(File file, String name) {
+		this.file = file;
+		this.name = name;
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the properties of the file or <code>null</code> if there is no
+	 *         file or it can't be read
+	 */
+	Properties load() {
+		if (file == null || !file.isFile())
+			return null;
+
+		Properties properties = new Properties();
+		InputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			properties.load(in);
+			return properties;
+		} catch (IOException e) {
+			logger.warn("unable to read the {} {}: {}", name, file,
+					e.getMessage());
+			return null;
+		} finally {
+			close(in);
+		}
+	}
+
+	void store(Properties properties, String comment) {
+		if (file == null)
+			return;
+
+		File temp = new File(file.getPath() + ".tmp");
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(temp);
+			properties.store(out, comment);
+			out.close();
+			out = null;
+
+			if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file)))
+				throw new IOException("unable to replace " + file);
+		} catch (IOException e) {
+			logger.warn("unable to write the {} {}: {}", name, file,
+					e.getMessage());
+		} finally {
+			close(out);
+		}
+	}
+
+	private void close(Closeable closeable) {
+		if (closeable == null)
+			return;
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			logger.debug("unable to close the {}: {}", name, e.getMessage());
+		}
+	}
+}
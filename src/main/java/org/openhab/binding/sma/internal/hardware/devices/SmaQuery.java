@@ -0,0 +1,204 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.hardware.devices;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.InverterDataType;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.LRIDefinition;
+
+/**
+ * A single data request: a command and the range of LRIs to read.
+ *
+ * {@link #plan(Set, Set)} creates the queries of a refresh cycle. The range
+ * of every data type is narrowed to the LRIs actually needed, then the
+ * ranges of the same command and record size are merged if they overlap or
+ * are only separated by a small gap.
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public class SmaQuery {
+
+	/**
+	 * max number of LRIs between two ranges that are merged
+	 */
+	public static final int MAX_GAP = 8;
+
+	private final int command;
+	private int first;
+	private int last;
+
+	// size of all records of the response or 0 if they differ
+	private final int recordSize;
+
+	private final Set<InverterDataType> types = EnumSet
+			.noneOf(InverterDataType.class);
+
+	public SmaQuery(int command, int first, int last, int recordSize) {
+		this.command = command;
+		this.first = first;
+		this.last = last;
+		this.recordSize = recordSize;
+	}
+
+	/**
+	 * @return the query of the full range of a data type
+	 */
+	public static SmaQuery of(InverterDataType type) {
+		SmaQuery query = new SmaQuery(type.getCommand(), type.getFirst(),
+				type.getLast(), recordSizeOf(type));
+		query.types.add(type);
+		return query;
+	}
+
+	public int getCommand() {
+		return command;
+	}
+
+	public int getFirst() {
+		return first;
+	}
+
+	public int getLast() {
+		return last;
+	}
+
+	public int getRecordSize() {
+		return recordSize;
+	}
+
+	/**
+	 * @return the data types read by this query
+	 */
+	public Set<InverterDataType> getTypes() {
+		return types;
+	}
+
+	/**
+	 * Plans the queries to read the given data types
+	 *
+	 * @param types
+	 *            the data types to read
+	 * @param lris
+	 *            the LRIs needed or <code>null</code> to read all LRIs of the
+	 *            data types
+	 * @return the queries ordered by command and range
+	 */
+	public static List<SmaQuery> plan(Set<InverterDataType> types,
+			Set<LRIDefinition> lris) {
+		List<SmaQuery> ranges = new ArrayList<SmaQuery>();
+		for (InverterDataType type : types) {
+			if (type == InverterDataType.None)
+				continue;
+
+			SmaQuery query = of(type);
+			if (lris != null)
+				query.narrow(lris);
+			ranges.add(query);
+		}
+
+		Collections.sort(ranges, BY_RANGE);
+
+		List<SmaQuery> queries = new ArrayList<SmaQuery>(ranges.size());
+		SmaQuery current = null;
+		for (SmaQuery range : ranges) {
+			if (current != null && current.canMerge(range)) {
+				current.last = Math.max(current.last, range.last);
+				current.types.addAll(range.types);
+			} else {
+				current = range;
+				queries.add(current);
+			}
+		}
+		return queries;
+	}
+
+	/**
+	 * @return all data types of the given queries
+	 */
+	public static Set<InverterDataType> typesOf(Collection<SmaQuery> queries) {
+		Set<InverterDataType> types = EnumSet.noneOf(InverterDataType.class);
+		for (SmaQuery query : queries) {
+			types.addAll(query.types);
+		}
+		return types;
+	}
+
+	/**
+	 * narrows the range to the given LRIs, if some of them belong to the
+	 * data types of this query
+	 */
+	private void narrow(Set<LRIDefinition> lris) {
+		int min = Integer.MAX_VALUE;
+		int max = Integer.MIN_VALUE;
+		for (LRIDefinition lri : lris) {
+			if (types.contains(lri.getData())) {
+				int lriCode = lri.getValue() & 0x00FFFF00;
+				min = Math.min(min, lriCode);
+				max = Math.max(max, lriCode | 0xFF);
+			}
+		}
+
+		if (min <= max) {
+			first = Math.max(first, min);
+			last = Math.min(last, max);
+		}
+	}
+
+	private boolean canMerge(SmaQuery next) {
+		return command == next.command && recordSize != 0
+				&& recordSize == next.recordSize
+				&& (next.first >>> 8) <= (last >>> 8) + MAX_GAP + 1;
+	}
+
+	/**
+	 * @return the size of the records of a data type or 0 if its LRIs have
+	 *         different sizes
+	 */
+	private static int recordSizeOf(InverterDataType type) {
+		int size = 0;
+		for (LRIDefinition lri : LRIDefinition.values()) {
+			if (lri.getData() != type)
+				continue;
+
+			LRIDecoder.Entry entry = LRIDecoder.lookup(lri.getValue());
+			if (entry == null)
+				continue;
+			if (size != 0 && size != entry.getRecordSize())
+				return 0;
+			size = entry.getRecordSize();
+		}
+		return size;
+	}
+
+	private static final Comparator<SmaQuery> BY_RANGE = new Comparator<SmaQuery>() {
+		@Override
+		public int compare(SmaQuery q1, SmaQuery q2) {
+			if (q1.command != q2.command)
+				return q1.command < q2.command ? -1 : 1;
+			if (q1.first != q2.first)
+				return q1.first < q2.first ? -1 : 1;
+			return 0;
+		}
+	};
+
+	@Override
+	public String toString() {
+		return "SmaQuery [command=0x" + Integer.toHexString(command)
+				+ ", first=0x" + Integer.toHexString(first) + ", last=0x"
+				+ Integer.toHexString(last) + ", types=" + types + "]";
+	}
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.hardware.devices;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The requests in flight, keyed by their packet id.
+ *
+ * Every request expects one response from each addressed inverter. A
+ * response is matched by its packet id and the serial of the sender; it is
+ * accepted only once, responses to unknown requests or from inverters which
+ * already answered are stale.
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public class SmaRequestTable {
+
+	private final Map<Short, Request> requests = new HashMap<Short, Request>();
+
+	/**
+	 * adds a request that was sent
+	 *
+	 * @param pcktID
+	 *            the packet id of the request
+	 * @param query
+	 *            the requested data
+	 * @param expected
+	 *            the inverters expected to respond
+	 */
+	public void add(short pcktID, SmaQuery query,
+			Collection<SmaSerial> expected) {
+		requests.put(pcktID, new Request(pcktID, query, expected));
+	}
+
+	/**
+	 * Matches a response to its request. The request is done, when all
+	 * inverters responded.
+	 *
+	 * @return the request or <code>null</code> if the response is stale
+	 */
+	public Request match(short pcktID, SmaSerial serial) {
+		Request request = requests.get(pcktID);
+		if (request == null || !request.outstanding.remove(serial))
+			return null;
+
+		if (request.outstanding.isEmpty())
+			requests.remove(pcktID);
+		return request;
+	}
+
+	/**
+	 * replaces a request, which is sent again with a new packet id. Only the
+	 * inverters which have not responded yet are expected to respond.
+	 */
+	public void resent(Request request, short pcktID) {
+		requests.remove(request.pcktID);
+		requests.put(pcktID, new Request(pcktID, request.query,
+				request.outstanding));
+	}
+
+	public int size() {
+		return requests.size();
+	}
+
+	public boolean isEmpty() {
+		return requests.isEmpty();
+	}
+
+	/**
+	 * @return a copy of the requests in flight
+	 */
+	public List<Request> getRequests() {
+		return new ArrayList<Request>(requests.values());
+	}
+
+	public void clear() {
+		requests.clear();
+	}
+
+	/**
+	 * a request in flight
+	 */
+	public static class Request {
+		private final short pcktID;
+		private final SmaQuery query;
+		private final Set<SmaSerial> outstanding;
+
+		Request(short pcktID, SmaQuery query, Collection<SmaSerial> expected) {
+			this.pcktID = pcktID;
+			this.query = query;
+			this.outstanding = new HashSet<SmaSerial>(expected);
+		}
+
+		public short getPacketID() {
+			return pcktID;
+		}
+
+		public SmaQuery getQuery() {
+			return query;
+		}
+
+		/**
+		 * @return the inverters which have not responded yet
+		 */
+		public Set<SmaSerial> getOutstanding() {
+			return outstanding;
+		}
+
+		@Override
+		public String toString() {
+			return "Request [pcktID=" + pcktID + ", query=" + query
+					+ ", outstanding=" + outstanding.size() + "]";
+		}
+	}
+}
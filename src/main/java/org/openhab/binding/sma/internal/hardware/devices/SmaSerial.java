@@ -4,9 +4,22 @@ public class SmaSerial {
 	protected short suSyID;
 	protected long serial;
 
+	/**
+	 * @param serial
+	 *            the serial, an unsigned 32 bit number; a serial read as int
+	 *            is not sign-extended
+	 */
 	public SmaSerial(short suSyID, long serial) {
 		this.suSyID = suSyID;
-		this.serial = serial;
+		this.serial = serial & 0xFFFFFFFFL;
+	}
+
+	public short getSUSyID() {
+		return suSyID;
+	}
+
+	public long getSerial() {
+		return serial;
 	}
 
 	@Override
@@ -0,0 +1,168 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.hardware.devices;
+
+import java.io.IOException;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.SmaUserGroup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the logon of a {@link SolarInverter} alive across refresh cycles.
+ *
+ * The inverter is only logged on again if the session has never been
+ * established, has been idle longer than the logon timeout or the inverter
+ * rejected a request. While idle a keep-alive request is sent periodically.
+ *
+ * All communication of the inverter has to be done while holding the lock of
+ * the session.
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public class SmaSession {
+	private static final Logger logger = LoggerFactory
+			.getLogger(SmaSession.class);
+
+	/**
+	 * logon timeout requested from the inverter (in seconds)
+	 */
+	public static final int LOGON_TIMEOUT = 900;
+
+	/**
+	 * idle time (in ms) after which a keep-alive request is sent
+	 */
+	public static final long KEEPALIVE_INTERVAL = 300000;
+
+	/**
+	 * error code of a request sent while the inverter is not logged on
+	 */
+	public static final short NOT_LOGGED_ON = 0x0017;
+
+	/**
+	 * error code of a query of LRIs the inverter doesn't have, e.g. the
+	 * battery values of an inverter without battery
+	 */
+	public static final short LRI_NOT_AVAILABLE = 0x0015;
+
+	private final SolarInverter inverter;
+	private final SmaUserGroup userGroup;
+	private final String password;
+
+	private boolean loggedOn = false;
+	private long lastActivity = 0;
+
+	private Timer keepAliveTimer;
+
+	public SmaSession(SolarInverter inverter, SmaUserGroup userGroup,
+			String password) {
+		this.inverter = inverter;
+		this.userGroup = userGroup;
+		this.password = password;
+	}
+
+	/**
+	 * Logs on, if there is no valid session yet
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void ensureLoggedOn() throws IOException {
+		if (loggedOn
+				&& System.currentTimeMillis() - lastActivity < LOGON_TIMEOUT * 1000L) {
+			return;
+		}
+
+		logger.debug("logon required for {}", inverter);
+		loggedOn = false;
+		inverter.logon(userGroup, password);
+		loggedOn = true;
+		touch();
+
+		if (keepAliveTimer == null) {
+			keepAliveTimer = new Timer("SMA keep-alive", true);
+			keepAliveTimer.schedule(new KeepAliveTask(), KEEPALIVE_INTERVAL,
+					KEEPALIVE_INTERVAL);
+		}
+	}
+
+	/**
+	 * marks the session as used
+	 */
+	public synchronized void touch() {
+		lastActivity = System.currentTimeMillis();
+	}
+
+	/**
+	 * marks the session as invalid, e.g. after the inverter rejected a
+	 * request. The next {@link #ensureLoggedOn()} logs on again.
+	 */
+	public synchronized void expire() {
+		loggedOn = false;
+	}
+
+	public synchronized boolean isLoggedOn() {
+		return loggedOn;
+	}
+
+	/**
+	 * @return <code>true</code> if the inverter rejected a request with the
+	 *         given error code because the logon is lost, all other errors
+	 *         concern the request only
+	 */
+	public static boolean isLogonLost(short errorCode) {
+		return errorCode == NOT_LOGGED_ON;
+	}
+
+	/**
+	 * Logs off and stops the keep-alive requests
+	 */
+	public synchronized void close() {
+		if (keepAliveTimer != null) {
+			keepAliveTimer.cancel();
+			keepAliveTimer = null;
+		}
+
+		if (loggedOn) {
+			loggedOn = false;
+			try {
+				inverter.logoff();
+			} catch (IOException e) {
+				logger.debug("unable to logoff {}: {}", inverter,
+						e.getMessage());
+			}
+		}
+	}
+
+	private synchronized void keepAlive() {
+		if (!loggedOn
+				|| System.currentTimeMillis() - lastActivity < KEEPALIVE_INTERVAL) {
+			return;
+		}
+
+		try {
+			logger.debug("sending keep-alive to {}", inverter);
+			inverter.keepAlive();
+			touch();
+		} catch (IOException e) {
+			logger.debug("keep-alive of {} failed: {}", inverter,
+					e.getMessage());
+			loggedOn = false;
+		}
+	}
+
+	private class KeepAliveTask extends TimerTask {
+		@Override
+		public void run() {
+			keepAlive();
+		}
+	}
+}
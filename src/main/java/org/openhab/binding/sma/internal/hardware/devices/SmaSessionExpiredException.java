@@ -0,0 +1,27 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.hardware.devices;
+
+import java.io.IOException;
+
+/**
+ * Signals that the inverter rejected a request because the logon is no
+ * longer valid.
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public class SmaSessionExpiredException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	public SmaSessionExpiredException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.hardware.devices;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the topology of the bluetooth plants discovered, so a plant can be
+ * connected again without the discovery of its network.
+ *
+ * The topologies are stored in a properties file, keyed by the configured
+ * address of the plant:
+ *
+ * <pre>
+ * version=1
+ * 00\:80\:25\:00\:00\:01.netID=4
+ * 00\:80\:25\:00\:00\:01.root=00:80:25:00:00:01
+ * 00\:80\:25\:00\:00\:01.local=00:1A:7D:DA:71:01
+ * 00\:80\:25\:00\:00\:01.inverters=2
+ * 00\:80\:25\:00\:00\:01.inverter.0.address=00:80:25:00:00:01
+ * 00\:80\:25\:00\:00\:01.inverter.0.susyID=131
+ * 00\:80\:25\:00\:00\:01.inverter.0.serial=2100000000
+ * ...
+ * </pre>
+ *
+ * A file of another version is ignored. Without a file the topologies are
+ * kept in memory only, which still saves the discovery after a link drop.
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public class SmaTopologyCache {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(SmaTopologyCache.class);
+
+	/**
+	 * version of the file format
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * name of the file in the data area of the bundle
+	 */
+	public static final String FILE_NAME = "sma-topology.properties";
+
+	private final SmaPropertiesFile file;
+
+	private final Map<String, Topology> topologies = new HashMap<String, Topology>();
+
+	/**
+	 * @param file
+	 *            the file of the cache or <code>null</code> to keep the
+	 *            topologies in memory only
+	 */
+	public SmaTopologyCache(File file) {
+		this.file = new SmaPropertiesFile(file, "topology cache");
+		load();
+	}
+
+	/**
+	 * @return the topology of the plant or <code>null</code> if it is unknown
+	 */
+	public synchronized Topology get(String plant) {
+		return topologies.get(plant);
+	}
+
+	public synchronized void put(String plant, Topology topology) {
+		topologies.put(plant, topology);
+		save();
+	}
+
+	private void load() {
+		Properties properties = file.load();
+		if (properties == null)
+			return;
+
+		if (!String.valueOf(VERSION).equals(properties.getProperty("version"))) {
+			logger.debug("ignoring topology cache {} of version {}",
+					file.getFile(), properties.getProperty("version"));
+			return;
+		}
+
+		for (String key : properties.stringPropertyNames()) {
+			if (!key.endsWith(".netID"))
+				continue;
+
+			String plant = key.substring(0, key.length() - ".netID".length());
+			try {
+				topologies.put(plant, Topology.read(properties, plant + "."));
+			} catch (RuntimeException e) {
+				logger.debug("ignoring cached topology of plant {}: {}",
+						plant, e.getMessage());
+			}
+		}
+		logger.debug("read the topology of {} plants from {}",
+				topologies.size(), file.getFile());
+	}
+
+	private void save() {
+		Properties properties = new Properties();
+		properties.setProperty("version", String.valueOf(VERSION));
+		for (Map.Entry<String, Topology> entry : topologies.entrySet()) {
+			entry.getValue().write(properties, entry.getKey() + ".");
+		}
+		file.store(properties, "topology of the SMA bluetooth plants");
+	}
+
+	/**
+	 * the network of a plant as found by its discovery
+	 */
+	public static class Topology {
+		private final int netID;
+		private final SmaBluetoothAddress rootAddress;
+		private final SmaBluetoothAddress localAddress;
+		private final List<Inverter> inverters;
+
+		public Topology(int netID, SmaBluetoothAddress rootAddress,
+				SmaBluetoothAddress localAddress, List<Inverter> inverters) {
+			this.netID = netID;
+			this.rootAddress = rootAddress;
+			this.localAddress = localAddress;
+			this.inverters = Collections
+					.unmodifiableList(new ArrayList<Inverter>(inverters));
+		}
+
+		public int getNetID() {
+			return netID;
+		}
+
+		public SmaBluetoothAddress getRootAddress() {
+			return rootAddress;
+		}
+
+		public SmaBluetoothAddress getLocalAddress() {
+			return localAddress;
+		}
+
+		public List<Inverter> getInverters() {
+			return inverters;
+		}
+
+		private static Topology read(Properties properties, String prefix) {
+			int count = Integer.parseInt(value(properties, prefix
+					+ "inverters"));
+			List<Inverter> inverters = new ArrayList<Inverter>(count);
+			for (int i = 0; i < count; i++) {
+				String inverter = prefix + "inverter." + i + ".";
+				inverters.add(new Inverter(new SmaBluetoothAddress(value(
+						properties, inverter + "address")), new SmaSerial(
+						Short.parseShort(value(properties, inverter
+								+ "susyID")), Long.parseLong(value(
+								properties, inverter + "serial")))));
+			}
+
+			return new Topology(Integer.parseInt(value(properties, prefix
+					+ "netID")), new SmaBluetoothAddress(value(properties,
+					prefix + "root")), new SmaBluetoothAddress(value(
+					properties, prefix + "local")), inverters);
+		}
+
+		private static String value(Properties properties, String key) {
+			String value = properties.getProperty(key);
+			if (value == null)
+				throw new IllegalArgumentException("missing " + key);
+			return value.trim();
+		}
+
+		private void write(Properties properties, String prefix) {
+			properties.setProperty(prefix + "netID", String.valueOf(netID));
+			properties.setProperty(prefix + "root", rootAddress.toString());
+			properties.setProperty(prefix + "local", localAddress.toString());
+			properties.setProperty(prefix + "inverters",
+					String.valueOf(inverters.size()));
+			for (int i = 0; i < inverters.size(); i++) {
+				Inverter inverter = inverters.get(i);
+				String key = prefix + "inverter." + i + ".";
+				properties.setProperty(key + "address", inverter.getAddress()
+						.toString());
+				properties.setProperty(key + "susyID", String.valueOf(inverter
+						.getSerial().getSUSyID()));
+				properties.setProperty(key + "serial", String.valueOf(inverter
+						.getSerial().getSerial()));
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "Topology [netID=" + netID + ", rootAddress=" + rootAddress
+					+ ", localAddress=" + localAddress + ", inverters="
+					+ inverters + "]";
+		}
+	}
+
+	/**
+	 * an inverter of a plant
+	 */
+	public static class Inverter {
+		private final SmaBluetoothAddress address;
+		private final SmaSerial serial;
+
+		public Inverter(SmaBluetoothAddress address, SmaSerial serial) {
+			this.address = address;
+			this.serial = serial;
+		}
+
+		public SmaBluetoothAddress getAddress() {
+			return address;
+		}
+
+		public SmaSerial getSerial() {
+			return serial;
+		}
+
+		@Override
+		public String toString() {
+			return "Inverter [address=" + address + ", serial=" + serial + "]";
+		}
+	}
+}
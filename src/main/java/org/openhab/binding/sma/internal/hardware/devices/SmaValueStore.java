@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.hardware.devices;
+
+import java.util.BitSet;
+
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.InverterDataType;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.LRIDefinition;
+
+/**
+ * Holds the values of all {@link LRIDefinition}s of one inverter.
+ *
+ * Values are stored in primitive arrays indexed by the ordinal of the LRI,
+ * together with their timestamp and a flag whether the value was read
+ * successfully during the last query of its {@link InverterDataType}.
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public class SmaValueStore {
+
+	private static final int SIZE = LRIDefinition.values().length;
+
+	// LRIs belonging to each data type, indexed by the ordinal of the type
+	private static final BitSet[] dataTypeMasks;
+
+	static {
+		dataTypeMasks = new BitSet[InverterDataType.values().length];
+		for (InverterDataType type : InverterDataType.values()) {
+			dataTypeMasks[type.ordinal()] = new BitSet(SIZE);
+		}
+		for (LRIDefinition lri : LRIDefinition.values()) {
+			dataTypeMasks[lri.getData().ordinal()].set(lri.ordinal());
+		}
+	}
+
+	private final long[] values = new long[SIZE];
+	private final int[] timestamps = new int[SIZE];
+	private final String[] texts = new String[SIZE];
+	private final BitSet valid = new BitSet(SIZE);
+
+	/**
+	 * stores a numeric or status value
+	 *
+	 * @param timestamp
+	 *            time of the value in seconds since the epoch
+	 */
+	public void set(LRIDefinition lri, long value, int timestamp) {
+		int i = lri.ordinal();
+		values[i] = value;
+		timestamps[i] = timestamp;
+		valid.set(i);
+	}
+
+	/**
+	 * stores a text value
+	 *
+	 * @param timestamp
+	 *            time of the value in seconds since the epoch
+	 */
+	public void setText(LRIDefinition lri, String value, int timestamp) {
+		int i = lri.ordinal();
+		texts[i] = value;
+		timestamps[i] = timestamp;
+		valid.set(i);
+	}
+
+	/**
+	 * marks the last value as current again, if there is one
+	 */
+	public void keep(LRIDefinition lri) {
+		int i = lri.ordinal();
+		if (timestamps[i] != 0)
+			valid.set(i);
+	}
+
+	/**
+	 * marks all values of the given data type as outdated
+	 */
+	public void invalidate(InverterDataType type) {
+		valid.andNot(dataTypeMasks[type.ordinal()]);
+	}
+
+	public boolean isValid(LRIDefinition lri) {
+		return valid.get(lri.ordinal());
+	}
+
+	public long get(LRIDefinition lri) {
+		return values[lri.ordinal()];
+	}
+
+	public String getText(LRIDefinition lri) {
+		return texts[lri.ordinal()];
+	}
+
+	/**
+	 * @return time of the value in seconds since the epoch or 0 if it was
+	 *         never read
+	 */
+	public int getTimestamp(LRIDefinition lri) {
+		return timestamps[lri.ordinal()];
+	}
+}
@@ -10,9 +10,15 @@
 package org.openhab.binding.sma.internal.hardware.devices;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.Set;
 
 import org.openhab.binding.sma.internal.SmaBinding.Device;
+import org.openhab.binding.sma.internal.layers.AbstractPhysicalLayer;
+import org.openhab.binding.sma.internal.layers.PacketView;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -22,15 +28,46 @@ public abstract class SolarInverter extends AbstractSmaDevice {
 
 	protected Device device;
 	protected Data data;
-	
-	protected short pcktID = 1;
+
+	protected SmaSession session;
 	
 	public SolarInverter(Device device) {
 		super();
 		this.device = device;
 	}
 
-	protected abstract String getInverterData(InverterDataType type);
+	/**
+	 * Requests the given data types and stores the received values. The
+	 * types of a query rejected for any other reason than a lost logon are
+	 * left invalid.
+	 * 
+	 * @throws SmaSessionExpiredException
+	 *             if the inverter rejected a request as it is not logged on
+	 */
+	protected abstract void requestInverterData(List<SmaQuery> queries)
+			throws IOException;
+
+	/**
+	 * @return the layer to send requests to the inverters
+	 */
+	protected abstract AbstractPhysicalLayer getPhysicalLayer();
+
+	/**
+	 * Waits for the next L2 packet of any inverter of the device
+	 * 
+	 * @return a view of the packet, only valid until the next receive
+	 */
+	protected abstract PacketView receivePacket() throws IOException;
+
+	/**
+	 * @return the serials of all inverters of the device
+	 */
+	protected abstract Collection<SmaSerial> getInverterSerials();
+
+	/**
+	 * Drops the connection after a communication error
+	 */
+	protected abstract void disconnect();
 	
 	public SmaSerial getSerial() {
 		return data.serial;
@@ -42,74 +79,409 @@ public abstract class SolarInverter extends AbstractSmaDevice {
 	}
 
 
+	/**
+	 * encodes the password of the user group for the logon request
+	 */
+	protected static byte[] encodePassword(SmaUserGroup userGroup,
+			String password) {
+		byte pw[] = new byte[12];
+
+		byte encChar = (byte) ((userGroup == SmaUserGroup.User) ? 0x88 : 0xBB);
+		int idx;
+		for (idx = 0; (idx < password.length()) && (idx < 12); idx++)
+			pw[idx] = (byte) (password.charAt(idx) + (encChar & 0xff));
+		for (; idx < 12; idx++)
+			pw[idx] = encChar;
+
+		return pw;
+	}
+
+	protected synchronized SmaSession getSession() {
+		if (session == null) {
+			session = new SmaSession(this,
+					device.isLoginAsInstaller() ? SmaUserGroup.Installer
+							: SmaUserGroup.User, device.getPassword());
+		}
+		return session;
+	}
+
+	@Override
+	public void readInverterData(Set<InverterDataType> types) throws IOException {
+		readInverterData(types, null);
+	}
+
 	@Override
-	public String getValueAsString(LRIDefinition element) {
-		InverterDataType data = element.getData();
-		/*
-		if (!this.hasValidValues(data)) {
-			this.getInverterData(data);
+	public void readInverterData(Set<InverterDataType> types,
+			Set<LRIDefinition> lris) throws IOException {
+		List<SmaQuery> queries = SmaQuery.plan(types, lris);
+		logger.debug("queries {}", queries);
+
+		SmaSession session = getSession();
+
+		synchronized (session) {
+			session.ensureLoggedOn();
+
+			try {
+				this.requestInverterData(queries);
+			} catch (SmaSessionExpiredException e) {
+				logger.debug("{}, logging on again", e.getMessage());
+				session.expire();
+				session.ensureLoggedOn();
+				this.requestInverterData(queries);
+			}
+			session.touch();
 		}
-		
-		if ((flags & InverterDataType.EnergyProduction.getValue()) == 0)
-			this.getInverterData(InverterDataType.EnergyProduction);
-		*/
-
-		try {
-			
-			this.logon(device.isLoginAsInstaller()?SmaUserGroup.Installer:SmaUserGroup.User, device.getPassword());
-			this.getInverterData(element.getData());
-			this.logoff();
-			
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+	}
+
+	@Override
+	public void readArchive(final SmaArchiveType type,
+			final SmaArchiveListener listener) throws IOException {
+		readLog(type + " archive", new LogReader() {
+			@Override
+			public void read(SmaSerial serial) throws IOException {
+				requestArchive(type, serial, listener);
+			}
+		});
+	}
+
+	@Override
+	public void readEventLog(final SmaEventLogListener listener)
+			throws IOException {
+		readLog("event log", new LogReader() {
+			@Override
+			public void read(SmaSerial serial) throws IOException {
+				requestEventLog(serial, listener);
+			}
+		});
+	}
+
+	/**
+	 * reads a log of every inverter within the session
+	 */
+	private void readLog(String name, LogReader reader) throws IOException {
+		SmaSession session = getSession();
+
+		synchronized (session) {
+			session.ensureLoggedOn();
+
+			try {
+				for (SmaSerial serial : getInverterSerials()) {
+					try {
+						reader.read(serial);
+					} catch (SmaSessionExpiredException e) {
+						logger.debug("{}, logging on again", e.getMessage());
+						session.expire();
+						session.ensureLoggedOn();
+						reader.read(serial);
+					}
+				}
+			} catch (SmaSessionExpiredException e) {
+				throw e;
+			} catch (IOException e) {
+				logger.error("unable to read the {} of device: {}", name,
+						e.getMessage());
+				disconnect();
+				throw e;
+			}
+			session.touch();
+		}
+	}
+
+	/**
+	 * Downloads the records of an inverter after its cursor, one request
+	 * per {@link SmaArchiveType#getSpan() span}. The cursor is stored after
+	 * every request, so an interrupted download continues with the last
+	 * complete request.
+	 */
+	private void requestArchive(final SmaArchiveType type,
+			final SmaSerial serial, final SmaArchiveListener listener)
+			throws IOException {
+		SmaCursorStore cursors = device.getCursorStore();
+		int now = (int) (System.currentTimeMillis() / 1000);
+		int cursor = (int) (cursors != null ? cursors.get(serial,
+				type.getCursorName(), now - type.getBackfill()) : now
+				- type.getBackfill());
+
+		while (cursor < now) {
+			int from = cursor + 1;
+			int to = (int) Math.min((long) from + type.getSpan() - 1, now);
+
+			final int[] last = { cursor };
+			boolean accepted = receiveLog(serial,
+					sendLogRequest(serial, type.getCommand(), from, to),
+					type.getRecordSize(), new RecordHandler() {
+						@Override
+						public void record(PacketView record) {
+							int timestamp = record.getInt(0);
+							long totalWh = record.getLong(4);
+							if (timestamp <= last[0])
+								return;
+
+							last[0] = timestamp;
+							if (totalWh != SmaDevice.NaN_S64
+									&& totalWh != SmaDevice.NaN_U64)
+								listener.archived(serial, type, timestamp,
+										totalWh);
+						}
+					});
+			if (!accepted)
+				break;
+
+			// the inverter may still add records to the current span, a
+			// span in the past is complete even without records
+			boolean open = to > now - type.getInterval();
+			cursor = open ? last[0] : Math.max(last[0], to);
+			if (cursors != null)
+				cursors.put(serial, type.getCursorName(), cursor);
+			if (open)
+				break;
+		}
+	}
+
+	/**
+	 * Downloads the entries of the event log of an inverter after the last
+	 * entry seen. The cursor is the time and the id of that entry, as
+	 * several entries may share a second.
+	 */
+	private void requestEventLog(final SmaSerial serial,
+			final SmaEventLogListener listener) throws IOException {
+		SmaCursorStore cursors = device.getCursorStore();
+		int now = (int) (System.currentTimeMillis() / 1000);
+		final int time = (int) (cursors != null ? cursors.get(serial,
+				SmaEvent.CURSOR_TIME, now - SmaEvent.BACKFILL) : now
+				- SmaEvent.BACKFILL);
+		final int entry = (int) (cursors != null ? cursors.get(serial,
+				SmaEvent.CURSOR_ENTRY, -1) : -1);
+
+		// the entries may arrive in any order
+		final SmaEvent[] newest = { null };
+		int command = device.isLoginAsInstaller() ? SmaEvent.INSTALLER_LOG
+				: SmaEvent.USER_LOG;
+		receiveLog(serial, sendLogRequest(serial, command, time, now),
+				SmaEvent.RECORDSIZE, new RecordHandler() {
+					@Override
+					public void record(PacketView record) {
+						SmaEvent event = SmaEvent.decode(record);
+						if (!event.isAfter(time, entry))
+							return;
+
+						if (newest[0] == null
+								|| event.isAfter(newest[0].getTimestamp(),
+										newest[0].getEntryID()))
+							newest[0] = event;
+						listener.logged(serial, event);
+					}
+				});
+
+		if (newest[0] != null && cursors != null) {
+			cursors.put(serial, SmaEvent.CURSOR_TIME, newest[0].getTimestamp());
+			cursors.put(serial, SmaEvent.CURSOR_ENTRY, newest[0].getEntryID());
 		}
-		
-		// TODO Auto-generated method stub
-		return "";
 	}
 
-	private boolean hasValidValues(InverterDataType data) {
-		return false; //((flags & data.getValue()) != 0);
+	/**
+	 * sends a request for the records of a log between two times (in
+	 * seconds since the epoch)
+	 * 
+	 * @return the packet id of the request
+	 */
+	private short sendLogRequest(SmaSerial serial, int command, int from,
+			int to) throws IOException {
+		AbstractPhysicalLayer layer = getPhysicalLayer();
+		short id = layer.beginRequest((byte) 0x09, (byte) 0xE0, (short) 0,
+				serial.getSUSyID(), (int) serial.getSerial());
+		layer.write(command);
+		layer.write(from);
+		layer.write(to);
+		layer.sendRequest();
+		return id;
 	}
-	
+
+	/**
+	 * Passes the records of all packets of the response to the handler as
+	 * they arrive, nothing is buffered. The last packet of the response has
+	 * a fragment counter of 0.
+	 * 
+	 * @return <code>false</code> if the inverter rejected the request
+	 */
+	private boolean receiveLog(SmaSerial serial, short id, int recordSize,
+			RecordHandler handler) throws IOException {
+		while (true) {
+			PacketView packet = receivePacket();
+			if (packet.getPacketID() != id
+					|| !serial.equals(new SmaSerial(packet.getSUSyID(), packet
+							.getSerial()))) {
+				logger.debug("discarding response {} while reading a log",
+						packet.getPacketID());
+				continue;
+			}
+
+			short retcode = packet.getErrorCode();
+			if (SmaSession.isLogonLost(retcode)) {
+				throw new SmaSessionExpiredException("log request rejected by "
+						+ serial + " (error 0x"
+						+ AbstractPhysicalLayer.toHex(retcode) + ")");
+			} else if (retcode != 0) {
+				// e.g. a log the inverter doesn't keep
+				logger.debug("log request rejected by {} (error 0x{})",
+						serial, AbstractPhysicalLayer.toHex(retcode));
+				return false;
+			}
+
+			for (packet.firstRecord(); packet.hasRecord(recordSize); packet
+					.nextRecord(recordSize)) {
+				handler.record(packet);
+			}
+			if (packet.hasRemaining()) {
+				logger.debug("record of {} bytes at {} exceeds the packet",
+						recordSize, packet.getRecordOffset());
+			}
+
+			if (packet.getFragment() == 0)
+				return true;
+		}
+	}
+
+	/**
+	 * reads a log of one inverter
+	 */
+	private interface LogReader {
+		void read(SmaSerial serial) throws IOException;
+	}
+
+	/**
+	 * handles the current record of a log response
+	 */
+	private interface RecordHandler {
+		void record(PacketView record);
+	}
+
+	/**
+	 * Sends a cheap request to keep the logon of an idle session alive
+	 * 
+	 * @throws IOException
+	 */
+	protected void keepAlive() throws IOException {
+		this.requestInverterData(Collections.singletonList(SmaQuery
+				.of(InverterDataType.SpotACTotalPower)));
+	}
+
+	@Override
+	public String getConnectionId() {
+		return device.getConnectionId();
+	}
+
+	@Override
+	public void close() {
+		if (session != null) {
+			session.close();
+		}
+	}
+
 	public static abstract class Data {
 
 		public Data() {}
 		
-		protected String deviceName;
 		protected SmaSerial serial;
 		protected int netID;
 		
 		//protected short suSyID;
 		//protected int serial;
 		protected float btSignal;
-		protected Date inverterTime;
-		protected Date wakeupTime;
-		protected Date sleepTime;
-		protected long pdc1, pdc2;
-		protected long udc1, udc2;
-		protected long idc1, idc2;
-		protected long pmax1, pmax2, pmax3;
-		protected long totalPac;
-		protected long pac1, pac2, pac3;
-		protected long uac1, uac2, uac3;
-		protected long iac1, iac2, iac3;
-		protected long gridFreq;
-		protected long operationTime;
-		protected long feedInTime;
-		protected long eToday;
-		protected long eTotal;
-		protected short modelID;
-		protected String deviceType;
-		protected String deviceClass;
-		protected DeviceClass devClass;
-		protected String swVersion; // "03.01.05.R"
-		protected int deviceStatus;
-		protected int gridRelayStatus;
-		
-		// Flag to signal which data is already loaded
-		protected int flags;
+
+		// values of all LRIs
+		protected final SmaValueStore values = new SmaValueStore();
+
+		public boolean isValid(LRIDefinition lri) {
+			return values.isValid(lri);
+		}
+
+		public void invalidate(InverterDataType type) {
+			values.invalidate(type);
+		}
+
+		/**
+		 * stores a decoded numeric or status value
+		 * 
+		 * @param timestamp
+		 *            time of the value in seconds since the epoch
+		 */
+		protected void setValue(LRIDefinition lri, long value, int timestamp) {
+			values.set(lri, value, timestamp);
+		}
+
+		/**
+		 * stores a decoded text value
+		 * 
+		 * @param timestamp
+		 *            time of the value in seconds since the epoch
+		 */
+		protected void setText(LRIDefinition lri, String value, int timestamp) {
+			values.setText(lri, value, timestamp);
+		}
+
+		/**
+		 * keeps the last value of a LRI, if the inverter didn't deliver a
+		 * valid one
+		 */
+		protected void keepValue(LRIDefinition lri) {
+			values.keep(lri);
+		}
+
+		/**
+		 * @return the value in its display unit or <code>null</code> if the
+		 *         value is not valid
+		 */
+		public String getValue(LRIDefinition lri) {
+			if (!values.isValid(lri))
+				return null;
+
+			String text = values.getText(lri);
+			if (text != null)
+				return text;
+
+			return ValueUnit.of(lri).toDecimal(values.get(lri)).toPlainString();
+		}
+
+		/**
+		 * @return the raw value as sent by the inverter
+		 */
+		public long getRawValue(LRIDefinition lri) {
+			return values.get(lri);
+		}
+
+		public SmaValueStore getValues() {
+			return values;
+		}
+
+		public String getDeviceName() {
+			return values.getText(LRIDefinition.NameplateLocation);
+		}
+
+		/**
+		 * @return the current inverter time (time of the last day yield)
+		 */
+		public Date getInverterTime() {
+			return toDate(values.getTimestamp(LRIDefinition.MeteringDyWhOut));
+		}
+
+		/**
+		 * @return the time when the inverter was switched on
+		 */
+		public Date getWakeupTime() {
+			return toDate(values.getTimestamp(LRIDefinition.NameplateLocation));
+		}
+
+		/**
+		 * @return the time when the inverter was switched off
+		 */
+		public Date getSleepTime() {
+			return toDate(values.getTimestamp(LRIDefinition.GridMsTotW));
+		}
+
+		private static Date toDate(int timestamp) {
+			return timestamp != 0 ? new Date(timestamp * 1000L) : null;
+		}
 
 		public int getNetID() {
 			return netID;
@@ -130,7 +502,7 @@ public abstract class SolarInverter extends AbstractSmaDevice {
 		
 		@Override
 		public String toString() {
-			return "deviceName=" + deviceName + ", netID=" + netID
+			return "deviceName=" + getDeviceName() + ", netID=" + netID
 					+ ", serial=" + serial;
 		}
 
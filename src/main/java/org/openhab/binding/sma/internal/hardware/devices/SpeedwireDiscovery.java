@@ -0,0 +1,472 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.hardware.devices;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.openhab.binding.sma.internal.layers.AbstractPhysicalLayer;
+import org.openhab.binding.sma.internal.layers.IP;
+import org.openhab.binding.sma.internal.layers.PacketView;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Discovers the Speedwire devices of the local network and keeps a
+ * directory of their addresses, keyed by their serial.
+ *
+ * A background thread sends the Speedwire discovery request to the
+ * multicast group {@value #GROUP} every round. A device which answers from
+ * an address not yet known is identified once by a unicast request, the
+ * answers of known addresses only refresh their entry. Entries which did not
+ * answer for {@value #EXPIRY} rounds are dropped.
+ *
+ * A device which can't be reached any more is {@link #invalidate(long)
+ * invalidated}, its address is identified again with the next round.
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public class SpeedwireDiscovery {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(SpeedwireDiscovery.class);
+
+	/**
+	 * multicast group of the discovery request
+	 */
+	public static final String GROUP = "239.12.255.254";
+
+	/**
+	 * default time (in ms) between two rounds
+	 */
+	public static final long DEFAULT_INTERVAL = 300000;
+
+	// min time (in ms) between two rounds requested by a lookup
+	private static final long MIN_INTERVAL = 10000;
+
+	// rounds without an answer until an entry is dropped
+	private static final int EXPIRY = 3;
+
+	// time (in ms) to wait for the identification of a device
+	private static final long IDENTIFY_TIMEOUT = 2000;
+
+	// "SMA\0", 0x0004 0x02A0 0xFFFFFFFF 0x0000 0x0020 0x00000000
+	private static final byte[] REQUEST = { 0x53, 0x4D, 0x41, 0x00, 0x00,
+			0x04, 0x02, (byte) 0xA0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+			(byte) 0xFF, 0x00, 0x00, 0x00, 0x20, 0x00, 0x00, 0x00, 0x00 };
+
+	// protocol of the telegrams energy meters multicast to the group
+	private static final short ENERGY_METER_PROTOCOL = 0x6069;
+
+	private final Map<SmaSerial, Entry> directory = new HashMap<SmaSerial, Entry>();
+
+	// the serial of every identified address, accessed by the discovery
+	// thread only; addresses which aren't inverters map to null
+	private final Map<InetAddress, SmaSerial> identified = new HashMap<InetAddress, SmaSerial>();
+
+	private volatile long interval = DEFAULT_INTERVAL;
+
+	private Thread thread;
+	private Selector selector;
+
+	private int round = 0;
+	private long lastRound = 0;
+	private boolean refresh = false;
+
+	/**
+	 * @param interval
+	 *            time (in ms) between two rounds
+	 */
+	public void setInterval(long interval) {
+		this.interval = interval;
+	}
+
+	/**
+	 * starts the discovery thread, if not already running
+	 */
+	public synchronized void start() {
+		if (thread != null)
+			return;
+
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				discover();
+			}
+		}, "SMA discovery");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * stops the discovery thread, the directory is kept
+	 */
+	public void stop() {
+		Thread thread;
+		synchronized (this) {
+			thread = this.thread;
+			this.thread = null;
+			if (selector != null)
+				selector.wakeup();
+		}
+
+		if (thread != null) {
+			thread.interrupt();
+			try {
+				thread.join(IDENTIFY_TIMEOUT);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * @return the address of the inverter of the given serial or
+	 *         <code>null</code> if it has not been discovered
+	 */
+	public synchronized InetAddress lookup(long serial) {
+		for (Map.Entry<SmaSerial, Entry> entry : directory.entrySet()) {
+			if (entry.getKey().getSerial() == serial)
+				return entry.getValue().address;
+		}
+		return null;
+	}
+
+	/**
+	 * Looks up the address of an inverter. If it is unknown, a round is
+	 * started and its answers are waited for.
+	 *
+	 * @param timeout
+	 *            max time (in ms) to wait for the inverter
+	 * @return the address of the inverter or <code>null</code> if it did not
+	 *         answer in time
+	 */
+	public synchronized InetAddress lookup(long serial, long timeout)
+			throws InterruptedException {
+		InetAddress address = lookup(serial);
+		if (address != null)
+			return address;
+
+		refresh();
+		long deadline = System.currentTimeMillis() + timeout;
+		long remaining = timeout;
+		while (remaining > 0) {
+			wait(remaining);
+			address = lookup(serial);
+			if (address != null)
+				return address;
+			remaining = deadline - System.currentTimeMillis();
+		}
+		return null;
+	}
+
+	/**
+	 * Drops the entry of an inverter which can't be reached at its address.
+	 * The address is identified again with the next round.
+	 */
+	public synchronized void invalidate(long serial) {
+		for (Iterator<Map.Entry<SmaSerial, Entry>> it = directory.entrySet()
+				.iterator(); it.hasNext();) {
+			Map.Entry<SmaSerial, Entry> entry = it.next();
+			if (entry.getKey().getSerial() == serial) {
+				logger.debug("dropping {} at {}", entry.getKey(),
+						entry.getValue().address);
+				it.remove();
+			}
+		}
+		refresh();
+	}
+
+	/**
+	 * @return a snapshot of the directory
+	 */
+	public synchronized Map<SmaSerial, InetAddress> getDirectory() {
+		Map<SmaSerial, InetAddress> addresses = new HashMap<SmaSerial, InetAddress>();
+		for (Map.Entry<SmaSerial, Entry> entry : directory.entrySet()) {
+			addresses.put(entry.getKey(), entry.getValue().address);
+		}
+		return Collections.unmodifiableMap(addresses);
+	}
+
+	/**
+	 * starts a round as soon as the last one is {@value #MIN_INTERVAL} ms old
+	 */
+	private synchronized void refresh() {
+		refresh = true;
+		if (selector != null)
+			selector.wakeup();
+	}
+
+	private synchronized boolean isRunning() {
+		return thread == Thread.currentThread();
+	}
+
+	private void discover() {
+		DatagramChannel channel = null;
+		try {
+			channel = open();
+			synchronized (this) {
+				selector = Selector.open();
+			}
+			channel.register(selector, SelectionKey.OP_READ);
+
+			ByteBuffer request = ByteBuffer.wrap(REQUEST);
+			ByteBuffer response = ByteBuffer.allocate(IP.MAXPACKETLENGTH)
+					.order(ByteOrder.BIG_ENDIAN);
+			SocketAddress group = new InetSocketAddress(
+					InetAddress.getByName(GROUP), IP.PORT);
+
+			while (isRunning()) {
+				long now = System.currentTimeMillis();
+				long next = nextRound();
+				if (next <= now) {
+					startRound(now);
+					request.rewind();
+					channel.send(request, group);
+					continue;
+				}
+
+				selector.select(next - now);
+				selector.selectedKeys().clear();
+
+				SocketAddress sender;
+				while ((sender = receive(channel, response)) != null) {
+					if (isResponse(response))
+						answered(((InetSocketAddress) sender).getAddress());
+				}
+			}
+		} catch (IOException e) {
+			// the channel is closed by the interrupt of stop()
+			if (isRunning())
+				logger.error("speedwire discovery failed: {}", e.getMessage());
+		} finally {
+			synchronized (this) {
+				close(selector);
+				selector = null;
+				// may be started again after a failure
+				if (thread == Thread.currentThread())
+					thread = null;
+			}
+			close(channel);
+			logger.debug("speedwire discovery stopped");
+		}
+	}
+
+	/**
+	 * opens the channel and joins the group on all multicast interfaces
+	 */
+	private DatagramChannel open() throws IOException {
+		DatagramChannel channel = DatagramChannel
+				.open(StandardProtocolFamily.INET);
+		try {
+			channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+			channel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, false);
+			channel.bind(new InetSocketAddress(IP.PORT));
+			channel.configureBlocking(false);
+
+			InetAddress group = InetAddress.getByName(GROUP);
+			int joined = 0;
+			Enumeration<NetworkInterface> interfaces = NetworkInterface
+					.getNetworkInterfaces();
+			while (interfaces != null && interfaces.hasMoreElements()) {
+				NetworkInterface nif = interfaces.nextElement();
+				if (!nif.isUp() || nif.isLoopback()
+						|| !nif.supportsMulticast() || !hasIPv4Address(nif))
+					continue;
+
+				try {
+					channel.join(group, nif);
+					joined++;
+				} catch (IOException e) {
+					logger.debug("unable to join {} on {}: {}", GROUP,
+							nif.getName(), e.getMessage());
+				}
+			}
+			if (joined == 0)
+				throw new IOException("no interface to join " + GROUP);
+
+			return channel;
+		} catch (IOException e) {
+			close(channel);
+			throw e;
+		}
+	}
+
+	private static boolean hasIPv4Address(NetworkInterface nif) {
+		Enumeration<InetAddress> addresses = nif.getInetAddresses();
+		while (addresses.hasMoreElements()) {
+			if (addresses.nextElement() instanceof Inet4Address)
+				return true;
+		}
+		return false;
+	}
+
+	private synchronized long nextRound() {
+		if (lastRound == 0)
+			return 0;
+		if (refresh)
+			return lastRound + MIN_INTERVAL;
+		return lastRound + interval;
+	}
+
+	/**
+	 * starts a new round and drops the entries which did not answer
+	 */
+	private synchronized void startRound(long now) {
+		round++;
+		lastRound = now;
+		refresh = false;
+
+		for (Iterator<Map.Entry<SmaSerial, Entry>> it = directory.entrySet()
+				.iterator(); it.hasNext();) {
+			Map.Entry<SmaSerial, Entry> entry = it.next();
+			if (round - entry.getValue().round > EXPIRY) {
+				logger.debug("{} at {} did not answer, dropping it",
+						entry.getKey(), entry.getValue().address);
+				it.remove();
+			}
+		}
+		// an address is identified again once its entry is dropped, or
+		// every round if it is no inverter
+		for (Iterator<Map.Entry<InetAddress, SmaSerial>> it = identified
+				.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<InetAddress, SmaSerial> address = it.next();
+			Entry entry = address.getValue() != null ? directory.get(address
+					.getValue()) : null;
+			if (entry == null || !entry.address.equals(address.getKey()))
+				it.remove();
+		}
+
+		logger.debug("starting speedwire discovery round {}", round);
+	}
+
+	private static SocketAddress receive(DatagramChannel channel,
+			ByteBuffer response) throws IOException {
+		response.clear();
+		SocketAddress sender = channel.receive(response);
+		response.flip();
+		return sender;
+	}
+
+	/**
+	 * @return <code>true</code> if the datagram may be the answer of a
+	 *         device, neither a request nor the telegram of an energy meter
+	 */
+	private static boolean isResponse(ByteBuffer datagram) {
+		if (datagram.limit() < REQUEST.length)
+			return false;
+		for (int i = 0; i < 4; i++) {
+			if (datagram.get(i) != REQUEST[i])
+				return false;
+		}
+		if (datagram.getInt(8) == 0xFFFFFFFF)
+			return false;
+		return datagram.getShort(16) != ENERGY_METER_PROTOCOL;
+	}
+
+	/**
+	 * refreshes the entry of a device or identifies a new one
+	 */
+	void answered(InetAddress address) {
+		if (identified.containsKey(address)) {
+			SmaSerial serial = identified.get(address);
+			if (serial != null) {
+				synchronized (this) {
+					Entry entry = directory.get(serial);
+					if (entry != null)
+						entry.round = round;
+				}
+			}
+			return;
+		}
+
+		SmaSerial serial = identify(address);
+		identified.put(address, serial);
+		if (serial == null)
+			return;
+
+		synchronized (this) {
+			Entry previous = directory.put(serial, new Entry(address, round));
+			if (previous != null && !previous.address.equals(address)) {
+				logger.info("{} moved from {} to {}", serial,
+						previous.address, address);
+				identified.remove(previous.address);
+			} else if (previous == null) {
+				logger.info("discovered {} at {}", serial, address);
+			}
+			notifyAll();
+		}
+	}
+
+	/**
+	 * queries the serial of the device at the given address
+	 *
+	 * @return the serial or <code>null</code> if the device is no inverter
+	 */
+	private static SmaSerial identify(InetAddress address) {
+		IP layer = new IP(address);
+		layer.setTimeout(IDENTIFY_TIMEOUT);
+		try {
+			layer.open();
+			short id = layer.sendRequest(0x00000200, 0x0, 0x0,
+					AbstractPhysicalLayer.ANYSUSYID,
+					AbstractPhysicalLayer.ANYSERIAL);
+			PacketView response = new PacketView().wrap(layer.receive(id,
+					IDENTIFY_TIMEOUT));
+			return new SmaSerial(response.getSUSyID(), response.getSerial());
+		} catch (IOException e) {
+			logger.debug("unable to identify {}: {}", address, e.getMessage());
+			return null;
+		} finally {
+			layer.close();
+		}
+	}
+
+	private static void close(Closeable closeable) {
+		if (closeable == null)
+			return;
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			logger.debug("unable to close the discovery channel: {}",
+					e.getMessage());
+		}
+	}
+
+	/**
+	 * the address of a device and the last round it answered
+	 */
+	private static class Entry {
+		private final InetAddress address;
+		private int round;
+
+		private Entry(InetAddress address, int round) {
+			this.address = address;
+			this.round = round;
+		}
+	}
+}
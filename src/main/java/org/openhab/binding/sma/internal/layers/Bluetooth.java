@@ -10,7 +10,14 @@ package org.openhab.binding.sma.internal.layers;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.microedition.io.Connector;
 import javax.microedition.io.StreamConnection;
@@ -26,24 +33,73 @@ public class Bluetooth extends AbstractPhysicalLayer {
 
 	// length of package header
 	public static final int HEADERLENGTH = 18;
+
+	// max length of a received packet including all of its fragments
+	public static final int MAXPACKETLENGTH = 1024;
+
+	// max length of a sent frame
+	public static final int MAXFRAMELENGTH = 520;
 	
 	protected static final int L2SIGNATURE = 0x656003FF;
+
+	/**
+	 * default time (in ms) to wait for a response
+	 */
+	public static final long DEFAULT_TIMEOUT = 5000;
+
+	// interval (in ms) to check for received data
+	private static final long POLL_INTERVAL = 10;
 	
 
 	// stores address in low endian
 	public SmaBluetoothAddress localAddress = new SmaBluetoothAddress();
 	public SmaBluetoothAddress destAddress;
 
-	protected short FCSChecksum = (short) 0xffff;
+	// the frame written, reused for all frames
+	protected final FrameEncoder frame = new FrameEncoder(MAXFRAMELENGTH);
+
+	// checksum of the packet received
+	private final Fcs16 rcvFcs = new Fcs16();
+
+	// reusable buffer for received frames and its read-only view
+	protected final byte[] rcvBuffer = new byte[MAXPACKETLENGTH];
+	protected final ByteBuffer rcvView = ByteBuffer.wrap(rcvBuffer)
+			.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+
+	private final SmaBluetoothAddress sourceAddr = new SmaBluetoothAddress();
+	private final SmaBluetoothAddress destinationAddr = new SmaBluetoothAddress();
+
+	// time (in ms) to wait for a response, by command
+	private final Map<Integer, Long> timeouts = new HashMap<Integer, Long>();
+	private long defaultTimeout = DEFAULT_TIMEOUT;
+
+	/**
+	 * opens connections by the bluetooth stack
+	 */
+	public static final StreamConnector BLUECOVE = new StreamConnector() {
+		@Override
+		public StreamConnection open(SmaBluetoothAddress address)
+				throws IOException {
+			return (StreamConnection) Connector.open(address
+					.getConnectorString());
+		}
+	};
+
+	// connector of the layers created from now on
+	private static volatile StreamConnector defaultConnector = BLUECOVE;
+
+	private StreamConnector connector = defaultConnector;
 
-	protected static StreamConnection connection;
-	protected static DataOutputStream out;
-	protected static DataInputStream in;
+	// every layer owns its connection, so plants can be polled concurrently
+	protected StreamConnection connection;
+	protected DataOutputStream out;
+	protected DataInputStream in;
 
 	public Bluetooth(SmaBluetoothAddress destAdress) {
 		super();
 
 		this.destAddress = destAdress;
+		initTimeouts();
 	}
 
 	public Bluetooth(String destAd) {
@@ -54,47 +110,132 @@ public class Bluetooth extends AbstractPhysicalLayer {
 		super();
 
 		this.destAddress = new SmaBluetoothAddress(destAdr, port);
+		initTimeouts();
+	}
+
+	private void initTimeouts() {
+		// the root device takes up to 3 seconds to answer the first request
+		timeouts.put(0x02, 10000L);
+		// the topology is sent after the network is built
+		timeouts.put(0x05, 15000L);
+		timeouts.put(0x06, 30000L);
+	}
+
+	/**
+	 * sets the time to wait for a response with the given command
+	 * 
+	 * @param command
+	 *            the command of the response, 0xFF for any command
+	 * @param timeout
+	 *            time in ms
+	 */
+	public void setTimeout(int command, long timeout) {
+		timeouts.put(command, timeout);
+	}
+
+	/**
+	 * sets the time to wait for responses without their own timeout, e.g.
+	 * data responses
+	 */
+	public void setDefaultTimeout(long timeout) {
+		this.defaultTimeout = timeout;
+	}
+
+	public long getTimeout(int command) {
+		Long timeout = timeouts.get(command);
+		return timeout != null ? timeout : defaultTimeout;
+	}
+
+	/**
+	 * sets the connector used by {@link #open()}, e.g. to connect to a
+	 * simulated plant
+	 */
+	public void setConnector(StreamConnector connector) {
+		this.connector = connector;
+	}
+
+	/**
+	 * sets the connector of all layers created from now on, e.g. to connect
+	 * the devices of a configured binding to simulated plants
+	 * 
+	 * @param connector
+	 *            the connector or <code>null</code> for the bluetooth stack
+	 */
+	public static void setDefaultConnector(StreamConnector connector) {
+		defaultConnector = connector != null ? connector : BLUECOVE;
 	}
 
+	/**
+	 * Connects to the destination address, if not already connected
+	 */
 	@Override
-	public void open() throws IOException {
-		close();
-		// TODO Auto-generated method stub
+	public synchronized void open() throws IOException {
 		if (connection == null) {
-			connection = (StreamConnection) Connector.open(destAddress
-					.getConnectorString());
-
-			out = connection.openDataOutputStream();
-			in = connection.openDataInputStream();
+			connection = connector.open(destAddress);
+
+			try {
+				out = connection.openDataOutputStream();
+				in = connection.openDataInputStream();
+			} catch (IOException e) {
+				close();
+				throw e;
+			}
 		}
+	}
 
+	public synchronized boolean isOpen() {
+		return connection != null;
 	}
 
+	/**
+	 * Disconnects, the next {@link #open()} connects again
+	 */
 	@Override
-	public void close() {
+	public synchronized void close() {
+		if (connection == null)
+			return;
+
+		try {
+			if (in != null)
+				in.close();
+			if (out != null)
+				out.close();
+			connection.close();
+		} catch (IOException e) {
+			logger.debug("unable to close connection to {}: {}", destAddress,
+					e.getMessage());
+		} finally {
+			in = null;
+			out = null;
+			connection = null;
+		}
 	}
 
 	@Override
 	public void write(byte v) {
-		// Keep a rolling checksum over the payload
-		FCSChecksum = (short) (((FCSChecksum & 0xff00) >>> 8) ^ fcstab[(FCSChecksum ^ v) & 0xff]);
-
-		if (v == 0x7d || v == 0x7e || v == 0x11 || v == 0x12 || v == 0x13) {
-			buffer[packetposition++] = 0x7d;
-			buffer[packetposition++] = (byte) (v ^ 0x20);
-		} else {
-			buffer[packetposition++] = v;
-		}
+		frame.put(v);
+	}
+
+	@Override
+	public void write(short v) {
+		frame.putShort(v);
+	}
+
+	@Override
+	public void write(int v) {
+		frame.putInt(v);
+	}
+
+	@Override
+	public void write(byte[] bytes, int count) {
+		frame.put(bytes, 0, count);
 	}
 
 	public void writePacket(byte longwords, byte ctrl, short ctrl2,
 			short dstSUSyID, int dstSerial) {
-		buffer[packetposition++] = 0x7E; // Not included in checksum
-		logger.debug("Checksum {}", Bluetooth.toHex(FCSChecksum));
+		frame.beginPacket(); // 0x7E, not included in checksum
 		write(L2SIGNATURE);
-		logger.debug("Checksum {}", Bluetooth.toHex(FCSChecksum));
 		write(longwords);
-		logger.debug("Checksum {}", Bluetooth.toHex(FCSChecksum));
 		write(ctrl);
 		write(dstSUSyID);
 		write(dstSerial);
@@ -108,10 +249,7 @@ public class Bluetooth extends AbstractPhysicalLayer {
 	}
 
 	public void writePacketTrailer() {
-		FCSChecksum ^= 0xFFFF;
-		buffer[packetposition++] = (byte) (FCSChecksum & 0x00FF);
-		buffer[packetposition++] = (byte) (((FCSChecksum & 0xFF00) >>> 8) & 0x00FF);
-		buffer[packetposition++] = 0x7E; // Trailing byte
+		frame.endPacket();
 	}
 
 	@Override
@@ -119,172 +257,268 @@ public class Bluetooth extends AbstractPhysicalLayer {
 		this.writePacketHeader(control, this.destAddress);
 	}
 
+	/**
+	 * requests are broadcast, the inverters are addressed by the L2 packet
+	 */
+	@Override
+	protected void writeRequestHeader() {
+		writePacketHeader(0x01, SmaBluetoothAddress.BROADCAST);
+	}
+
 	public void writePacketHeader(int control, SmaBluetoothAddress destaddress) {
-		packetposition = 0;
-		FCSChecksum = (short) 0xFFFF;
+		frame.reset();
 
-		buffer[packetposition++] = 0x7E;
-		buffer[packetposition++] = 0; // placeholder for len1
-		buffer[packetposition++] = 0; // placeholder for len2
-		buffer[packetposition++] = 0; // placeholder for checksum
+		frame.putRaw((byte) 0x7E);
+		frame.putRaw((byte) 0); // placeholder for len1
+		frame.putRaw((byte) 0); // placeholder for len2
+		frame.putRaw((byte) 0); // placeholder for checksum
 
 		int i;
 		for (i = 0; i < 6; i++)
-			buffer[packetposition++] = localAddress.get(i);
+			frame.putRaw(localAddress.get(i));
 
 		for (i = 0; i < 6; i++)
-			buffer[packetposition++] = destaddress.get(i);
+			frame.putRaw(destaddress.get(i));
 
-		buffer[packetposition++] = (byte) (control & 0xFF);
-		buffer[packetposition++] = (byte) (control >>> 8);
+		frame.putRaw((byte) (control & 0xFF));
+		frame.putRaw((byte) (control >>> 8));
 	}
 
 	@Override
 	public void writePacketLength() {
-		buffer[1] = (byte) (packetposition & 0xFF); // Lo-Byte
-		buffer[2] = (byte) ((packetposition >>> 8) & 0xFF); // Hi-Byte
-		buffer[3] = (byte) (buffer[0] ^ buffer[1] ^ buffer[2]); // checksum
+		frame.finish();
 	}
 
 	@Override
 	public void send() throws IOException {
-		writePacketLength();
-		logger.debug("Sending {} bytes:\n{}", packetposition,
-				bytesToHex(buffer, packetposition, ' '));
-		out.write(buffer, 0, packetposition);
+		if (out == null)
+			throw new IOException("not connected to " + destAddress);
+
+		int length = frame.finish();
+		if (logger.isDebugEnabled()) {
+			logger.debug("Sending {} bytes:\n{}", length,
+					bytesToHex(frame.array(), length, ' '));
+		}
+		out.write(frame.array(), 0, length);
 	}
 
 	@Override
-	public byte[] receive(int wait4Command) throws IOException {
+	public ByteBuffer receive(int wait4Command) throws IOException {
 		return receive(destAddress, wait4Command);
 	}
 
-	public byte[] receiveAll(int wait4Command) throws IOException {
+	public ByteBuffer receiveAll(int wait4Command) throws IOException {
 		return receive(SmaBluetoothAddress.BROADCAST, wait4Command);
 	}
 
-	protected byte[] receive(SmaBluetoothAddress destAddress, int wait4Command)
-			throws IOException {
-		SmaBluetoothAddress sourceAddr = new SmaBluetoothAddress();
-		SmaBluetoothAddress destinationAddr = new SmaBluetoothAddress();
-		byte[] data = null;
-
-		logger.debug("receive({})\n", wait4Command);
-
+	/**
+	 * Reads frames until a frame with the given command arrives from the
+	 * given address. L2 packets spread over several frames are collected
+	 * and unescaped in place.
+	 * 
+	 * The returned view is only valid until the next call of receive, it
+	 * contains the header of the last frame followed by the (unescaped)
+	 * payload.
+	 * 
+	 * The checksum of a L2 packet is built while it is unescaped. Packets
+	 * with an invalid checksum are discarded.
+	 * 
+	 * @throws SocketTimeoutException
+	 *             if the frame did not arrive within the timeout of the
+	 *             command. If a frame was read partly, the connection is
+	 *             closed, as the next frame can't be found anymore.
+	 */
+	protected ByteBuffer receive(SmaBluetoothAddress destAddress,
+			int wait4Command) throws IOException {
+		logger.debug("receive({})", wait4Command);
+
+		if (in == null)
+			throw new IOException("not connected to " + this.destAddress);
+
+		long deadline = System.currentTimeMillis() + getTimeout(wait4Command);
+
+		// length of the unescaped L2 packet collected so far
 		int index = 0;
-		int hasL2pckt = 0;
+		boolean hasL2pckt = false;
+		boolean escNext = false;
+		// end of the bytes added to the checksum
+		int checked = 0;
 
-		int rc = 0;
+		int pkLength = 0;
+		int length = 0;
 		int command = 0;
+		boolean validSender = false;
+		boolean complete = false;
 
 		do {
-			data = new byte[520];
-			in.read(data, 0, HEADERLENGTH);
-
-			// int SOP = data[0];
-			// data are in litle endian. getUnsignedShort exact big endian
-			int pkLength = data[1] + (data[2] << 8);
-			// int pkChecksum = data[3];
-
-			sourceAddr.setAddress(data, 4);
-			destinationAddr.setAddress(data, 10);
-
-			command = data[16] + (data[17] << 8);
-
-			if (pkLength > HEADERLENGTH) {
-				// data = new byte[pkLength - HEADERLENGTH];
-				in.read(data, 18, pkLength - HEADERLENGTH);
-
-				logger.debug("data received: \n{}", bytesToHex(data, pkLength));
-				// Check if data is coming from the right inverter
-				if (destAddress.equals(sourceAddr)) {
-					rc = 0;
-					logger.debug("source: {}", sourceAddr.toString());
-					logger.debug("destination: {}", destinationAddr.toString());
-
-					logger.debug("receiving cmd {}", command);
-
-					if ((hasL2pckt == 0) && data[18] == (byte) 0x7E
-							&& data[19] == (byte) 0xff
-							&& data[20] == (byte) 0x03
-							&& data[21] == (byte) 0x60
-							&& data[22] == (byte) 0x65) // 0x656003FF7E
-					{
-						hasL2pckt = 1;
-					}
+			read(rcvBuffer, 0, HEADERLENGTH, deadline, false);
+
+			// data are in little endian
+			pkLength = (rcvBuffer[1] & 0xFF) + ((rcvBuffer[2] & 0xFF) << 8);
+			// int pkChecksum = rcvBuffer[3];
+
+			if ((pkLength < HEADERLENGTH)
+					|| ((hasL2pckt ? index : 0) + pkLength > rcvBuffer.length)) {
+				throw new IOException("invalid packet length " + pkLength);
+			}
+
+			sourceAddr.setAddress(rcvBuffer, 4);
+			destinationAddr.setAddress(rcvBuffer, 10);
+
+			command = (rcvBuffer[16] & 0xFF) + ((rcvBuffer[17] & 0xFF) << 8);
+
+			// Check if data is coming from the right inverter
+			validSender = destAddress.equals(sourceAddr);
+			complete = ((command == wait4Command) && validSender)
+					|| (0xFF == wait4Command);
+
+			if (pkLength == HEADERLENGTH) {
+				length = HEADERLENGTH + (hasL2pckt ? index : 0);
+				continue;
+			}
+
+			// payload of a L2 packet is appended to the part already collected
+			int start = HEADERLENGTH + (hasL2pckt ? index : 0);
+			read(rcvBuffer, start, pkLength - HEADERLENGTH, deadline, true);
+
+			if (logger.isDebugEnabled()) {
+				logger.debug("data received from {} to {}, cmd {}: \n{}",
+						sourceAddr, destinationAddr, command,
+						bytesToHex(rcvBuffer, start, pkLength - HEADERLENGTH));
+			}
+
+			if (!validSender) {
+				logger.debug("Wrong sender: {}", sourceAddr);
+				length = HEADERLENGTH + (hasL2pckt ? index : 0);
+				continue;
+			}
+
+			if (!hasL2pckt && rcvBuffer[18] == (byte) 0x7E
+					&& rcvBuffer[19] == (byte) 0xff
+					&& rcvBuffer[20] == (byte) 0x03
+					&& rcvBuffer[21] == (byte) 0x60
+					&& rcvBuffer[22] == (byte) 0x65) // 0x656003FF7E
+			{
+				hasL2pckt = true;
+				rcvFcs.reset();
+				// the leading 0x7E is not part of the checksum
+				checked = HEADERLENGTH + 1;
+			}
 
-					if (hasL2pckt == 1) {
-						// Copy CommBuf to packetbuffer
-						boolean escNext = false;
-						byte dummy[] = new byte[data.length];
-
-						logger.debug("PacketLength={}", pkLength);
-
-						for (int i = HEADERLENGTH; i < pkLength; i++) {
-							dummy[index] = data[i];
-							// Keep 1st byte raw unescaped 0x7E
-							if (escNext == true) {
-								dummy[index] ^= 0x20;
-								escNext = false;
-								index++;
-							} else {
-								if (dummy[index] == 0x7D)
-									escNext = true; // Throw away the 0x7d byte
-								else
-									index++;
-							}
-							if (index >= 520) {
-								logger.warn(
-										"Warning: pcktBuf buffer overflow! ({})\n",
-										index);
-								throw new ArrayIndexOutOfBoundsException();
-							}
-						}
-
-						byte[] result = new byte[index + HEADERLENGTH];
-						System.arraycopy(data, 0, result, 0, HEADERLENGTH);
-						System.arraycopy(dummy, 0, result, HEADERLENGTH, index);
-
-						data = result;
-						
-						logger.debug("data decoded: \n{}", bytesToHex(data, data.length));
+			if (hasL2pckt) {
+				// unescape in place, the write position never passes the
+				// read position
+				int end = start + pkLength - HEADERLENGTH;
+				int pos = start;
+				for (int i = start; i < end; i++) {
+					byte b = rcvBuffer[i];
+					if (escNext) {
+						rcvBuffer[pos++] = (byte) (b ^ 0x20);
+						escNext = false;
+					} else if (b == 0x7D) {
+						escNext = true; // Throw away the 0x7d byte
+					} else {
+						rcvBuffer[pos++] = b;
 					}
-				} // isValidSender()
-				else {
-					rc = -1; // E_RETRY;
-					logger.debug("Wrong sender: {}", sourceAddr);
 				}
+				index = pos - HEADERLENGTH;
+				length = pos;
 
+				// the last 3 bytes may be checksum and trailer
+				if (pos - 3 > checked) {
+					rcvFcs.update(rcvBuffer, checked, pos - 3 - checked);
+					checked = pos - 3;
+				}
+			} else {
+				length = pkLength;
 			}
-		} while (((command != wait4Command) || (rc == -1/* E_RETRY */))
-				&& (0xFF != wait4Command));
 
-		return data;
-	}
+			if (complete && hasL2pckt && !isValidChecksum(checked, length)) {
+				logger.debug("discarding packet with invalid checksum from {}",
+						sourceAddr);
+				hasL2pckt = false;
+				escNext = false;
+				index = 0;
+				complete = false;
+			}
+		} while (!complete);
 
-	public boolean isCrcValid() {
-		byte lb = buffer[packetposition - 3], hb = buffer[packetposition - 2];
+		if (hasL2pckt && logger.isDebugEnabled()) {
+			logger.debug("data decoded: \n{}",
+					bytesToHex(rcvBuffer, HEADERLENGTH, length - HEADERLENGTH));
+		}
 
-		return !((lb == 0x7E) || (hb == 0x7E) || (lb == 0x7D) || (hb == 0x7D));
+		rcvView.clear();
+		rcvView.limit(length);
+		return rcvView;
 	}
 
-	public boolean isValidChecksum() {
-		FCSChecksum = (short) 0xffff;
-		// Skip over 0x7e at start and end of packet
-		int i;
-		for (i = 1; i <= packetposition - 4; i++) {
-			FCSChecksum = (short) ((FCSChecksum >> 8) ^ fcstab[(FCSChecksum ^ buffer[i]) & 0xff]);
+	/**
+	 * Reads exactly length bytes, but waits no longer than the deadline
+	 * 
+	 * @param partial
+	 *            <code>true</code> if a part of the frame has already been
+	 *            read
+	 */
+	private void read(byte[] b, int offset, int length, long deadline,
+			boolean partial) throws IOException {
+		int end = offset + length;
+
+		while (offset < end) {
+			int available = in.available();
+			if (available > 0) {
+				int count = in.read(b, offset, Math.min(available, end - offset));
+				if (count < 0) {
+					close();
+					throw new EOFException("connection to " + destAddress
+							+ " closed");
+				}
+				offset += count;
+				partial = true;
+				continue;
+			}
+
+			if (System.currentTimeMillis() >= deadline) {
+				if (partial) {
+					// the stream is in the middle of a frame
+					close();
+				}
+				throw new SocketTimeoutException("no response from "
+						+ destAddress);
+			}
+
+			try {
+				Thread.sleep(POLL_INTERVAL);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				close();
+				throw new InterruptedIOException("receive from " + destAddress
+						+ " interrupted");
+			}
 		}
+	}
 
-		FCSChecksum ^= 0xffff;
+	/**
+	 * Completes the checksum of a received L2 packet and compares it with
+	 * the checksum at the end of the packet
+	 * 
+	 * @param checked
+	 *            end of the bytes already added to the checksum
+	 * @param length
+	 *            end of the packet, including checksum and trailing 0x7E
+	 */
+	private boolean isValidChecksum(int checked, int length) {
+		if (length < HEADERLENGTH + 4)
+			return false;
 
-		if (getShort(buffer, packetposition - 3) == (short) FCSChecksum)
+		rcvFcs.update(rcvBuffer, checked, length - 3 - checked);
+		short expected = getShort(rcvBuffer, length - 3);
+		if (rcvFcs.getValue() == expected)
 			return true;
-		else {
-			logger.debug("Invalid chk {} - Found 0x{}{}", toHex(FCSChecksum),
-					toHex(buffer[2]), toHex(buffer[3]));
-			return false;
-		}
+
+		logger.debug("Invalid chk {} - Found {}", toHex(rcvFcs.getValue()),
+				toHex(expected));
+		return false;
 	}
 
 }
@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.layers;
+
+/**
+ * FCS-16 checksum of the L2 packets (PPP, RFC 1662).
+ *
+ * A checksum is built byte by byte while a packet is written or received;
+ * blocks of bytes are processed eight at a time (slice-by-8). The tables are
+ * derived from the polynomial when the class is loaded.
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public class Fcs16 {
+
+	// reversed polynomial x^16 + x^12 + x^5 + 1
+	private static final int POLYNOMIAL = 0x8408;
+
+	public static final int INITIAL = 0xFFFF;
+
+	// TABLES[k][b] is the checksum of byte b followed by k zero bytes
+	private static final int[][] TABLES = new int[8][256];
+
+	static {
+		for (int b = 0; b < 256; b++) {
+			int crc = b;
+			for (int bit = 0; bit < 8; bit++) {
+				crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+			}
+			TABLES[0][b] = crc;
+		}
+		for (int k = 1; k < 8; k++) {
+			for (int b = 0; b < 256; b++) {
+				int crc = TABLES[k - 1][b];
+				TABLES[k][b] = (crc >>> 8) ^ TABLES[0][crc & 0xFF];
+			}
+		}
+	}
+
+	private int crc = INITIAL;
+
+	/**
+	 * starts a new checksum
+	 */
+	public void reset() {
+		crc = INITIAL;
+	}
+
+	public void update(byte b) {
+		crc = update(crc, b);
+	}
+
+	public void update(byte[] bytes, int offset, int length) {
+		crc = update(crc, bytes, offset, length);
+	}
+
+	/**
+	 * @return the checksum of the bytes so far, as it is sent (little endian)
+	 *         after the packet
+	 */
+	public short getValue() {
+		return (short) (crc ^ 0xFFFF);
+	}
+
+	/**
+	 * @return the checksum of the given bytes
+	 */
+	public static short checksum(byte[] bytes, int offset, int length) {
+		return (short) (update(INITIAL, bytes, offset, length) ^ 0xFFFF);
+	}
+
+	public static int update(int crc, byte b) {
+		return (crc >>> 8) ^ TABLES[0][(crc ^ b) & 0xFF];
+	}
+
+	public static int update(int crc, byte[] bytes, int offset, int length) {
+		int end = offset + length;
+
+		// the 16 bit register only affects the first two bytes of a block
+		for (; offset + 8 <= end; offset += 8) {
+			crc = TABLES[7][(crc ^ bytes[offset]) & 0xFF]
+					^ TABLES[6][((crc >>> 8) ^ bytes[offset + 1]) & 0xFF]
+					^ TABLES[5][bytes[offset + 2] & 0xFF]
+					^ TABLES[4][bytes[offset + 3] & 0xFF]
+					^ TABLES[3][bytes[offset + 4] & 0xFF]
+					^ TABLES[2][bytes[offset + 5] & 0xFF]
+					^ TABLES[1][bytes[offset + 6] & 0xFF]
+					^ TABLES[0][bytes[offset + 7] & 0xFF];
+		}
+
+		for (; offset < end; offset++) {
+			crc = (crc >>> 8) ^ TABLES[0][(crc ^ bytes[offset]) & 0xFF];
+		}
+		return crc;
+	}
+}
@@ -0,0 +1,195 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.layers;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Builds a bluetooth frame in a buffer, which is reused for all frames of a
+ * layer.
+ *
+ * The L1 header is written as is. The bytes of a L2 packet are escaped and
+ * added to its checksum as they are written, so the frame is complete after
+ * a single pass: {@link #finish()} only fills in the length. The checksum is
+ * escaped like the bytes of the packet, so every packet can be sent as
+ * built.
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public class FrameEncoder {
+
+	// the bytes which are escaped within a L2 packet
+	private static final boolean[] ESCAPED = new boolean[256];
+
+	static {
+		ESCAPED[0x7D] = true;
+		ESCAPED[0x7E] = true;
+		ESCAPED[0x11] = true;
+		ESCAPED[0x12] = true;
+		ESCAPED[0x13] = true;
+	}
+
+	private static final byte ESCAPE = 0x7D;
+
+	private static final byte DELIMITER = 0x7E;
+
+	private final ByteBuffer frame;
+
+	// checksum register of the L2 packet
+	private int crc = Fcs16.INITIAL;
+
+	// true while the bytes of a L2 packet are written
+	private boolean inPacket = false;
+
+	public FrameEncoder(int capacity) {
+		frame = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * starts a new frame
+	 */
+	public void reset() {
+		frame.clear();
+		inPacket = false;
+	}
+
+	/**
+	 * writes a byte of the L1 header or a byte not escaped
+	 */
+	public void putRaw(byte b) {
+		frame.put(b);
+	}
+
+	/**
+	 * starts a L2 packet, its bytes are escaped and checksummed
+	 */
+	public void beginPacket() {
+		frame.put(DELIMITER);
+		crc = Fcs16.INITIAL;
+		inPacket = true;
+	}
+
+	/**
+	 * writes the checksum and the end of the L2 packet
+	 *
+	 * @return the checksum
+	 */
+	public short endPacket() {
+		short checksum = (short) (crc ^ 0xFFFF);
+		inPacket = false;
+		putEscaped((byte) (checksum & 0xFF));
+		putEscaped((byte) ((checksum >>> 8) & 0xFF));
+		frame.put(DELIMITER);
+		return checksum;
+	}
+
+	private void putEscaped(byte b) {
+		if (ESCAPED[b & 0xFF]) {
+			frame.put(ESCAPE);
+			frame.put((byte) (b ^ 0x20));
+		} else {
+			frame.put(b);
+		}
+	}
+
+	public void put(byte b) {
+		if (!inPacket) {
+			frame.put(b);
+			return;
+		}
+
+		crc = Fcs16.update(crc, b);
+		putEscaped(b);
+	}
+
+	public void putShort(short v) {
+		byte b0 = (byte) v;
+		byte b1 = (byte) (v >>> 8);
+		if (inPacket && (ESCAPED[b0 & 0xFF] || ESCAPED[b1 & 0xFF])) {
+			put(b0);
+			put(b1);
+			return;
+		}
+
+		if (inPacket) {
+			crc = Fcs16.update(Fcs16.update(crc, b0), b1);
+		}
+		frame.putShort(v);
+	}
+
+	public void putInt(int v) {
+		if (inPacket
+				&& (ESCAPED[v & 0xFF] || ESCAPED[(v >>> 8) & 0xFF]
+						|| ESCAPED[(v >>> 16) & 0xFF] || ESCAPED[v >>> 24])) {
+			putShort((short) v);
+			putShort((short) (v >>> 16));
+			return;
+		}
+
+		if (inPacket) {
+			crc = Fcs16.update(crc, (byte) v);
+			crc = Fcs16.update(crc, (byte) (v >>> 8));
+			crc = Fcs16.update(crc, (byte) (v >>> 16));
+			crc = Fcs16.update(crc, (byte) (v >>> 24));
+		}
+		frame.putInt(v);
+	}
+
+	/**
+	 * writes a run of bytes, the parts between escaped bytes are copied at
+	 * once
+	 */
+	public void put(byte[] bytes, int offset, int length) {
+		if (!inPacket) {
+			frame.put(bytes, offset, length);
+			return;
+		}
+
+		int end = offset + length;
+		int run = offset;
+		for (int i = offset; i < end; i++) {
+			byte b = bytes[i];
+			crc = Fcs16.update(crc, b);
+			if (ESCAPED[b & 0xFF]) {
+				frame.put(bytes, run, i - run);
+				frame.put(ESCAPE);
+				frame.put((byte) (b ^ 0x20));
+				run = i + 1;
+			}
+		}
+		frame.put(bytes, run, end - run);
+	}
+
+	/**
+	 * fills in the length of the frame and the checksum of the L1 header
+	 *
+	 * @return the length of the frame
+	 */
+	public int finish() {
+		int length = frame.position();
+		byte[] b = frame.array();
+		b[1] = (byte) (length & 0xFF); // Lo-Byte
+		b[2] = (byte) ((length >>> 8) & 0xFF); // Hi-Byte
+		b[3] = (byte) (b[0] ^ b[1] ^ b[2]); // checksum
+		return length;
+	}
+
+	/**
+	 * @return the buffer of the frame, valid up to {@link #length()}
+	 */
+	public byte[] array() {
+		return frame.array();
+	}
+
+	public int length() {
+		return frame.position();
+	}
+}
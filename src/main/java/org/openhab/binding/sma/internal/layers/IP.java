@@ -10,45 +10,169 @@ package org.openhab.binding.sma.internal.layers;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Speedwire transport to an inverter with an ethernet interface.
+ *
+ * Packets are sent as UDP datagrams to port 9522 of the inverter. The
+ * channel is non-blocking, a receive waits on a selector until a datagram
+ * arrives or the timeout expires.
+ *
+ * Received L2 packets are returned in the same layout as the packets of the
+ * {@link Bluetooth} layer, i.e. the L2 packet starts at
+ * {@link Bluetooth#HEADERLENGTH}, so they can be read by a
+ * {@link PacketView}.
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
 public class IP extends AbstractPhysicalLayer {
 
 	private static final Logger logger = LoggerFactory
 			.getLogger(IP.class);
-	
+
 	protected static final int L2SIGNATURE = 0x65601000;
-	
+
+	// "SMA\0"
+	protected static final int L1SIGNATURE = 0x00414D53;
+
+	public static final int PORT = 9522;
+
+	// default time (in ms) to wait for a response
+	public static final long DEFAULT_TIMEOUT = 3000;
+
+	// length of the L1 header of a datagram, followed by the L2 signature
+	protected static final int HEADERLENGTH = 14;
+
+	// length of the L1 and L2 header the packet length does not count
+	protected static final int L2HEADERLENGTH = 20;
+
+	// a received L2 packet is moved by this offset to the bluetooth layout
+	protected static final int L2SHIFT = Bluetooth.HEADERLENGTH + 1
+			- HEADERLENGTH;
+
+	// max length of a datagram
+	public static final int MAXPACKETLENGTH = 1024;
+
 	protected InetAddress address;
 
+	// time (in ms) to wait for a response
+	private long timeout = DEFAULT_TIMEOUT;
+
+	private DatagramChannel channel;
+	private Selector selector;
+
+	// the packet written, sent without copying
+	private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(
+			MAXPACKETLENGTH).order(ByteOrder.LITTLE_ENDIAN);
+	private final ByteBuffer rcvDatagram = ByteBuffer.allocateDirect(
+			MAXPACKETLENGTH).order(ByteOrder.LITTLE_ENDIAN);
+
+	// reusable buffer for the received packet and its read-only view
+	protected final byte[] rcvBuffer = new byte[MAXPACKETLENGTH + L2SHIFT];
+	protected final ByteBuffer rcvView = ByteBuffer.wrap(rcvBuffer)
+			.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+
 	public IP(InetAddress address) {
 		this.address = address;
 	}
-	
 
+	public InetAddress getAddress() {
+		return address;
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Opens the channel to the inverter, if not already open
+	 */
 	@Override
-	public void open() throws IOException {
-		// TODO Auto-generated method stub
-		
+	public synchronized void open() throws IOException {
+		if (channel != null)
+			return;
+
+		channel = DatagramChannel.open();
+		try {
+			channel.configureBlocking(false);
+			// only datagrams of the inverter are received
+			channel.connect(new InetSocketAddress(address, PORT));
+
+			selector = Selector.open();
+			channel.register(selector, SelectionKey.OP_READ);
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	public synchronized boolean isOpen() {
+		return channel != null;
 	}
 
 	@Override
-	public void close() {
-		// TODO Auto-generated method stub
-		
+	public synchronized void close() {
+		try {
+			if (selector != null)
+				selector.close();
+			if (channel != null)
+				channel.close();
+		} catch (IOException e) {
+			logger.debug("unable to close channel to {}: {}", address,
+					e.getMessage());
+		} finally {
+			selector = null;
+			channel = null;
+		}
 	}
 
 	@Override
 	public void send() throws IOException {
-		// TODO Auto-generated method stub
-		
+		if (channel == null)
+			throw new IOException("channel to " + address + " is not open");
+
+		writePacketLength();
+		sendBuffer.flip();
+		if (logger.isDebugEnabled()) {
+			logger.debug("Sending {} bytes to {}:\n{}", sendBuffer.limit(),
+					address, toHex(sendBuffer));
+		}
+		channel.write(sendBuffer);
 	}
 
 	@Override
 	public void write(byte v) {
-		buffer[packetposition++] = v;
+		sendBuffer.put(v);
+	}
+
+	@Override
+	public void write(short v) {
+		sendBuffer.putShort(v);
+	}
+
+	@Override
+	public void write(int v) {
+		sendBuffer.putInt(v);
+	}
+
+	@Override
+	public void write(byte[] bytes, int count) {
+		sendBuffer.put(bytes, 0, count);
 	}
 
 	@Override
@@ -66,7 +190,7 @@ public class IP extends AbstractPhysicalLayer {
 		write(ctrl2);
 		write((short) 0);
 		write((short) 0);
-		write(pcktID | 0x8000);
+		write((short) (pcktID | 0x8000));
 	}
 
 	@Override
@@ -76,24 +200,135 @@ public class IP extends AbstractPhysicalLayer {
 
 	@Override
 	public void writePacketHeader(int control) {
-        write(0x00414D53);  // SMA\0
-        write(0xA0020400);
-        write(0x01000000);
-        write((byte) 0);
-        write((byte) 0); 	// Placeholder for packet length
-    }
+		sendBuffer.clear();
 
+		write(L1SIGNATURE); // SMA\0
+		write(0xA0020400);
+		write(0x01000000);
+		write((byte) 0);
+		write((byte) 0); // Placeholder for packet length
+	}
 
 	@Override
-	public byte[] receive(int i) throws IOException {
-		// TODO Auto-generated method stub
-		return null;
+	public void writePacketLength() {
+		// big endian, without the headers and the trailer
+		int length = sendBuffer.position() - L2HEADERLENGTH;
+		sendBuffer.put(12, (byte) ((length >>> 8) & 0xFF));
+		sendBuffer.put(13, (byte) (length & 0xFF));
 	}
 
+	@Override
+	protected void writeRequestHeader() {
+		writePacketHeader(0);
+	}
 
 	@Override
-	public void writePacketLength() {
-		// TODO Auto-generated method stub
-		
+	public ByteBuffer receive(int wait4Command) throws IOException {
+		return receive(timeout);
+	}
+
+	/**
+	 * Waits for the next L2 packet of the inverter. Other datagrams are
+	 * skipped.
+	 *
+	 * The returned view is only valid until the next call of receive.
+	 *
+	 * @param timeout
+	 *            max time (in ms) to wait
+	 * @throws SocketTimeoutException
+	 *             if no packet arrived in time
+	 */
+	public ByteBuffer receive(long timeout) throws IOException {
+		if (channel == null)
+			throw new IOException("channel to " + address + " is not open");
+
+		long deadline = System.currentTimeMillis() + timeout;
+
+		while (true) {
+			rcvDatagram.clear();
+			int length = channel.read(rcvDatagram);
+
+			if (length <= 0) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0)
+					throw new SocketTimeoutException("no response from "
+							+ address + " within " + timeout + " ms");
+
+				selector.select(remaining);
+				selector.selectedKeys().clear();
+				continue;
+			}
+
+			rcvDatagram.flip();
+			if (logger.isDebugEnabled()) {
+				logger.debug("data received from {}: \n{}", address,
+						toHex(rcvDatagram));
+			}
+
+			if (normalize(rcvDatagram)) {
+				return rcvView;
+			}
+		}
+	}
+
+	/**
+	 * Waits for the response to the request with the given packet id.
+	 * Responses to other (earlier) requests are discarded.
+	 *
+	 * @param pcktID
+	 *            id of the request
+	 * @param timeout
+	 *            max time (in ms) to wait
+	 * @throws SocketTimeoutException
+	 *             if the response did not arrive in time
+	 */
+	public ByteBuffer receive(short pcktID, long timeout) throws IOException {
+		long deadline = System.currentTimeMillis() + timeout;
+
+		while (true) {
+			ByteBuffer data = receive(Math.max(1,
+					deadline - System.currentTimeMillis()));
+			short rcvpcktID = (short) (data.getShort(PacketView.L2OFFSET + 27) & 0x7FFF);
+			if (rcvpcktID == pcktID)
+				return data;
+
+			logger.debug("discarding response to packet {}, expected {}",
+					rcvpcktID, pcktID);
+		}
+	}
+
+	/**
+	 * Copies the L2 packet of a datagram to the receive buffer, in the
+	 * layout of the bluetooth layer.
+	 *
+	 * @return <code>false</code> if the datagram contains no L2 packet
+	 */
+	private boolean normalize(ByteBuffer datagram) {
+		int length = datagram.limit();
+
+		if (length < L2HEADERLENGTH + 4
+				|| datagram.getInt(0) != L1SIGNATURE
+				|| datagram.getInt(HEADERLENGTH) != L2SIGNATURE) {
+			logger.debug("skipping datagram without L2 packet ({} bytes)",
+					length);
+			return false;
+		}
+
+		// the L2 packet starts after the 0x7E of a bluetooth packet
+		rcvBuffer[Bluetooth.HEADERLENGTH] = 0x7E;
+		datagram.position(HEADERLENGTH);
+		datagram.get(rcvBuffer, HEADERLENGTH + L2SHIFT, length - HEADERLENGTH);
+
+		// the trailer of a datagram (4 bytes) is one byte longer than the
+		// trailer of a bluetooth packet (checksum and 0x7E)
+		rcvView.clear();
+		rcvView.limit(length + L2SHIFT - 1);
+		return true;
+	}
+
+	private static String toHex(ByteBuffer data) {
+		byte[] bytes = new byte[data.remaining()];
+		data.duplicate().get(bytes);
+		return bytesToHex(bytes, bytes.length, ' ');
 	}
 }
@@ -0,0 +1,174 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.layers;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Date;
+
+/**
+ * Read access to a received L2 packet and its LRI records without copying.
+ *
+ * The view is meant to be reused: {@link #wrap(ByteBuffer)} it around every
+ * received packet and iterate the records by
+ *
+ * <pre>
+ * for (view.firstRecord(); view.hasRecord(recordsize); view.nextRecord(recordsize)) {
+ * 	int code = view.getCode();
+ * 	...
+ * }
+ * </pre>
+ *
+ * Nothing is allocated while iterating, timestamps are only converted to
+ * {@link Date} if {@link #getDate()} is called.
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public class PacketView {
+
+	// offset of the L2 packet (starting with 0x7E) in a received packet
+	public static final int L2OFFSET = Bluetooth.HEADERLENGTH;
+
+	// offset of the first record in a received packet
+	public static final int RECORDOFFSET = L2OFFSET + 41;
+
+	// the trailing checksum and end of packet marker
+	public static final int TRAILERLENGTH = 3;
+
+	// length of the code starting every record
+	public static final int CODELENGTH = 4;
+
+	private ByteBuffer buffer;
+	private int record;
+
+	public PacketView wrap(ByteBuffer buffer) {
+		this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+		this.record = RECORDOFFSET;
+		return this;
+	}
+
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	public short getSUSyID() {
+		return buffer.getShort(L2OFFSET + 15);
+	}
+
+	/**
+	 * @return the serial of the sender, an unsigned 32 bit number
+	 */
+	public long getSerial() {
+		return buffer.getInt(L2OFFSET + 17) & 0xFFFFFFFFL;
+	}
+
+	public short getErrorCode() {
+		return buffer.getShort(L2OFFSET + 23);
+	}
+
+	public short getPacketID() {
+		return (short) (buffer.getShort(L2OFFSET + 27) & 0x7FFF);
+	}
+
+	/**
+	 * @return the number of packets of the response still to come, 0 for the
+	 *         last packet
+	 */
+	public short getFragment() {
+		return buffer.getShort(L2OFFSET + 25);
+	}
+
+	/**
+	 * moves to the first record of the packet
+	 */
+	public void firstRecord() {
+		record = RECORDOFFSET;
+	}
+
+	/**
+	 * @param recordsize
+	 *            size of the current record
+	 * @return <code>true</code> if the whole record is within the packet
+	 */
+	public boolean hasRecord(int recordsize) {
+		return record + recordsize <= buffer.limit() - TRAILERLENGTH;
+	}
+
+	/**
+	 * @return <code>true</code> if there are bytes left after the current
+	 *         record, e.g. a record which is cut off
+	 */
+	public boolean hasRemaining() {
+		return record < buffer.limit() - TRAILERLENGTH;
+	}
+
+	/**
+	 * @return offset of the current record in the packet
+	 */
+	public int getRecordOffset() {
+		return record;
+	}
+
+	/**
+	 * moves to the next record
+	 *
+	 * @param recordsize
+	 *            size of the current record
+	 */
+	public void nextRecord(int recordsize) {
+		record += recordsize;
+	}
+
+	/**
+	 * @return the raw code of the record (data type, LRI and class)
+	 */
+	public int getCode() {
+		return buffer.getInt(record);
+	}
+
+	public int getLRI() {
+		return getCode() & 0x00FFFF00;
+	}
+
+	public int getCls() {
+		return getCode() & 0xFF;
+	}
+
+	public int getDataType() {
+		return getCode() >>> 24;
+	}
+
+	/**
+	 * @return timestamp of the record in seconds since the epoch
+	 */
+	public int getTimestamp() {
+		return buffer.getInt(record + 4);
+	}
+
+	public Date getDate() {
+		return new Date(getTimestamp() * 1000L);
+	}
+
+	public byte get(int offset) {
+		return buffer.get(record + offset);
+	}
+
+	public int getInt(int offset) {
+		return buffer.getInt(record + offset);
+	}
+
+	public long getLong(int offset) {
+		return buffer.getLong(record + offset);
+	}
+
+	public String getString(int offset, int length) {
+		return AbstractPhysicalLayer.getString(buffer, record + offset, length);
+	}
+}
@@ -9,6 +9,7 @@
 package org.openhab.binding.sma.internal.layers;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public interface PhysicalLayer {
 
@@ -18,7 +19,7 @@ public interface PhysicalLayer {
 	public void open() throws IOException;
 	public void close();
 	public void send() throws IOException;
-	public byte[] receive(int i) throws IOException;
+	public ByteBuffer receive(int i) throws IOException;
 	
 	public void writePacketHeader(int control);
 	public void writePacketTrailer();
@@ -32,5 +33,4 @@ public interface PhysicalLayer {
 	public void write(int v);
 	
 	void writePacketLength();
-	boolean isCrcValid();
 }
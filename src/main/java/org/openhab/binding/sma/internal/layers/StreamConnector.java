@@ -0,0 +1,31 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.layers;
+
+import java.io.IOException;
+
+import javax.microedition.io.StreamConnection;
+
+import org.openhab.binding.sma.internal.hardware.devices.SmaBluetoothAddress;
+
+/**
+ * Opens the stream connection of a {@link Bluetooth} layer
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public interface StreamConnector {
+
+	/**
+	 * @param address
+	 *            the address to connect to
+	 * @return the open connection
+	 */
+	StreamConnection open(SmaBluetoothAddress address) throws IOException;
+}
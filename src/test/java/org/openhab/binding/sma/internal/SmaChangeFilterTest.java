@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.LRIDefinition;
+import org.openhab.core.library.items.NumberItem;
+import org.openhab.core.library.items.StringItem;
+import org.openhab.core.library.types.DecimalType;
+import org.openhab.core.library.types.StringType;
+
+/**
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public class SmaChangeFilterTest {
+
+	private static final String ITEM = "sma_power";
+
+	private final SmaChangeFilter filter = new SmaChangeFilter();
+
+	private static SmaBindingConfig config() {
+		return new SmaBindingConfig(NumberItem.class, "plant",
+				LRIDefinition.values()[0]);
+	}
+
+	@Test
+	public void testPublishesChangesOnly() {
+		SmaBindingConfig config = config();
+
+		assertTrue(filter.accept(ITEM, config, new DecimalType(100), 0));
+		assertFalse(filter.accept(ITEM, config, new DecimalType(100), 1000));
+		assertTrue(filter.accept(ITEM, config, new DecimalType(101), 2000));
+		// every item has its own last state
+		assertTrue(filter.accept("sma_other", config, new DecimalType(101),
+				2000));
+	}
+
+	@Test
+	public void testAbsoluteDeadband() {
+		SmaBindingConfig config = config();
+		config.setAbsoluteDeadband(5);
+
+		assertTrue(filter.accept(ITEM, config, new DecimalType(100), 0));
+		assertFalse(filter.accept(ITEM, config, new DecimalType(105), 1000));
+		assertFalse(filter.accept(ITEM, config, new DecimalType(95), 2000));
+		assertTrue(filter.accept(ITEM, config, new DecimalType(94), 3000));
+		// the deadband is relative to the last published state
+		assertFalse(filter.accept(ITEM, config, new DecimalType(99), 4000));
+		assertTrue(filter.accept(ITEM, config, new DecimalType(100), 5000));
+	}
+
+	@Test
+	public void testRelativeDeadband() {
+		SmaBindingConfig config = config();
+		config.setRelativeDeadband(10);
+
+		assertTrue(filter.accept(ITEM, config, new DecimalType(1000), 0));
+		assertFalse(filter.accept(ITEM, config, new DecimalType(1100), 1000));
+		assertFalse(filter.accept(ITEM, config, new DecimalType(900), 2000));
+		assertTrue(filter.accept(ITEM, config, new DecimalType(1101), 3000));
+	}
+
+	@Test
+	public void testMaxSilence() {
+		SmaBindingConfig config = config();
+		config.setAbsoluteDeadband(5);
+		config.setMaxSilence(60000);
+
+		assertTrue(filter.accept(ITEM, config, new DecimalType(100), 0));
+		assertFalse(filter.accept(ITEM, config, new DecimalType(100), 59999));
+		// unchanged, but silent for too long
+		assertTrue(filter.accept(ITEM, config, new DecimalType(101), 60000));
+		assertFalse(filter.accept(ITEM, config, new DecimalType(101), 61000));
+		assertTrue(filter.accept(ITEM, config, new DecimalType(101), 120000));
+	}
+
+	@Test
+	public void testStates() {
+		SmaBindingConfig config = new SmaBindingConfig(StringItem.class,
+				"plant", LRIDefinition.values()[0]);
+		config.setAbsoluteDeadband(5);
+
+		assertTrue(filter.accept(ITEM, config, new StringType("Ok"), 0));
+		assertFalse(filter.accept(ITEM, config, new StringType("Ok"), 1000));
+		assertTrue(filter.accept(ITEM, config, new StringType("Error"), 2000));
+	}
+
+	@Test
+	public void testNewConfigurationIsPublished() {
+		assertTrue(filter.accept(ITEM, config(), new DecimalType(100), 0));
+		assertTrue(filter.accept(ITEM, config(), new DecimalType(100), 1000));
+	}
+
+	@Test
+	public void testClear() {
+		SmaBindingConfig config = config();
+
+		assertTrue(filter.accept(ITEM, config, new DecimalType(100), 0));
+		filter.clear();
+		assertTrue(filter.accept(ITEM, config, new DecimalType(100), 1000));
+	}
+}
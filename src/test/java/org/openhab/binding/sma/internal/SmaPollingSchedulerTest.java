@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.junit.Test;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.InverterDataType;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.LRIDefinition;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.SmaStatus;
+
+/**
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public class SmaPollingSchedulerTest {
+
+	private static final String DEVICE = "plant";
+
+	private static final long INTERVAL = 60000;
+
+	private static final long ASLEEP = 600000;
+
+	private static final Set<InverterDataType> TYPES = EnumSet.of(
+			InverterDataType.SpotACTotalPower, InverterDataType.TypeLabel);
+
+	private final SmaPollingScheduler scheduler = new SmaPollingScheduler(
+			INTERVAL);
+
+	/**
+	 * @return a device which reports the given device and grid relay status
+	 */
+	private static SmaDevice device(final SmaStatus status,
+			final SmaStatus relay) {
+		return (SmaDevice) Proxy.newProxyInstance(
+				SmaDevice.class.getClassLoader(),
+				new Class<?>[] { SmaDevice.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						if ("isValid".equals(method.getName()))
+							return Boolean.TRUE;
+						if ("getStatus".equals(method.getName()))
+							return args[0] == LRIDefinition.OperationHealth ? status
+									: relay;
+						throw new UnsupportedOperationException(method
+								.getName());
+					}
+				});
+	}
+
+	@Test
+	public void testCadences() {
+		assertEquals(INTERVAL,
+				scheduler.getCadence(InverterDataType.SpotACTotalPower));
+		assertEquals(SmaPollingScheduler.DAILY,
+				scheduler.getCadence(InverterDataType.TypeLabel));
+		assertEquals(INTERVAL, scheduler.getTick());
+
+		scheduler.setCadence(InverterDataType.SpotACTotalPower, 10000);
+		assertEquals(10000, scheduler.getTick());
+		// the binding thread doesn't spin
+		scheduler.setCadence(InverterDataType.SpotACTotalPower, 10);
+		assertEquals(1000, scheduler.getTick());
+	}
+
+	@Test
+	public void testDueTypes() {
+		SmaDevice awake = device(SmaStatus.Ok, SmaStatus.Closed);
+
+		// everything is due at first, together with the device status
+		Set<InverterDataType> due = scheduler.getDueTypes(DEVICE, TYPES, 0);
+		assertEquals(EnumSet.of(InverterDataType.SpotACTotalPower,
+				InverterDataType.TypeLabel, InverterDataType.DeviceStatus),
+				due);
+		scheduler.polled(DEVICE, awake, due, 0);
+		assertFalse(scheduler.isAsleep(DEVICE));
+
+		assertTrue(scheduler.getDueTypes(DEVICE, TYPES, INTERVAL / 2 - 1)
+				.isEmpty());
+		// half a tick early is in time
+		assertEquals(EnumSet.of(InverterDataType.SpotACTotalPower,
+				InverterDataType.DeviceStatus),
+				scheduler.getDueTypes(DEVICE, TYPES, INTERVAL / 2));
+
+		assertTrue(scheduler.getDueTypes(DEVICE,
+				EnumSet.noneOf(InverterDataType.class), INTERVAL).isEmpty());
+	}
+
+	@Test
+	public void testBacksOffWhileAsleep() {
+		scheduler.setAsleepInterval(ASLEEP);
+		Set<InverterDataType> due = scheduler.getDueTypes(DEVICE, TYPES, 0);
+		scheduler.polled(DEVICE, device(SmaStatus.Off, SmaStatus.Closed), due,
+				0);
+		assertTrue(scheduler.isAsleep(DEVICE));
+
+		assertTrue(scheduler.getDueTypes(DEVICE, TYPES, INTERVAL).isEmpty());
+		due = scheduler.getDueTypes(DEVICE, TYPES, ASLEEP);
+		assertTrue(due.contains(InverterDataType.SpotACTotalPower));
+		// a longer cadence stays
+		assertFalse(due.contains(InverterDataType.TypeLabel));
+
+		// awake again, back to the normal cadence
+		scheduler.polled(DEVICE, device(SmaStatus.Ok, SmaStatus.Closed), due,
+				ASLEEP);
+		assertFalse(scheduler.isAsleep(DEVICE));
+		assertTrue(scheduler.getDueTypes(DEVICE, TYPES, ASLEEP + INTERVAL)
+				.contains(InverterDataType.SpotACTotalPower));
+	}
+
+	@Test
+	public void testAsleep() {
+		assertTrue(SmaPollingScheduler.isAsleep(device(SmaStatus.Off,
+				SmaStatus.Closed)));
+		assertTrue(SmaPollingScheduler.isAsleep(device(SmaStatus.Ok,
+				SmaStatus.Open)));
+		assertFalse(SmaPollingScheduler.isAsleep(device(SmaStatus.Warning,
+				SmaStatus.Closed)));
+
+		// an unreachable device is asleep as well
+		scheduler.polled(DEVICE, null, TYPES, 0);
+		assertTrue(scheduler.isAsleep(DEVICE));
+		assertFalse(scheduler.isAsleep("other"));
+	}
+}
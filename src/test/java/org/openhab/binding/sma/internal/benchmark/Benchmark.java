@@ -0,0 +1,56 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.benchmark;
+
+/**
+ * A micro-benchmark run by the {@link BenchmarkRunner}.
+ *
+ * {@link #operation()} is called in a loop, its results are summed up by the
+ * runner so the JIT can't drop the work as dead code. Everything which is
+ * not part of the measured operation belongs into {@link #setUp()}.
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public abstract class Benchmark {
+
+	private final String name;
+
+	protected Benchmark(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * prepares the data of the benchmark, called once before the warmup
+	 */
+	public void setUp() throws Exception {
+	}
+
+	/**
+	 * releases the resources of the benchmark, called after the measurement
+	 */
+	public void tearDown() throws Exception {
+	}
+
+	/**
+	 * runs the measured operation once
+	 *
+	 * @return any value depending on the work done
+	 */
+	public abstract long operation() throws Exception;
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Runs {@link Benchmark}s in the style of JMH: every benchmark is warmed up
+ * for some iterations, then the time per operation is measured for some
+ * iterations of a fixed duration.
+ *
+ * The benchmarks are part of the test sources and not shipped with the
+ * binding. Run the codec benchmarks from the compiled test classes by
+ *
+ * <pre>
+ * java -cp target/test-classes:target/classes:... org.openhab.binding.sma.internal.benchmark.BenchmarkRunner [regex]
+ * </pre>
+ *
+ * The number and duration of the iterations are read from the system
+ * properties <code>sma.benchmark.warmup</code>,
+ * <code>sma.benchmark.iterations</code> and <code>sma.benchmark.time</code>
+ * (in ms).
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public class BenchmarkRunner {
+
+	// operations run between two reads of the clock
+	private static final int BATCH = 64;
+
+	private int warmupIterations = 5;
+	private int measurementIterations = 10;
+	private long iterationTime = 500;
+
+	// sum of all results, keeps the operations from being optimized away
+	private volatile long sink;
+
+	public void setWarmupIterations(int warmupIterations) {
+		this.warmupIterations = warmupIterations;
+	}
+
+	public void setMeasurementIterations(int measurementIterations) {
+		this.measurementIterations = measurementIterations;
+	}
+
+	/**
+	 * @param iterationTime
+	 *            duration of an iteration in ms
+	 */
+	public void setIterationTime(long iterationTime) {
+		this.iterationTime = iterationTime;
+	}
+
+	public Result run(Benchmark benchmark) throws Exception {
+		benchmark.setUp();
+		try {
+			for (int i = 0; i < warmupIterations; i++) {
+				iterate(benchmark);
+			}
+
+			double[] times = new double[measurementIterations];
+			for (int i = 0; i < measurementIterations; i++) {
+				times[i] = iterate(benchmark);
+			}
+			return new Result(benchmark.getName(), times);
+		} finally {
+			benchmark.tearDown();
+		}
+	}
+
+	public List<Result> run(List<Benchmark> benchmarks, Pattern filter)
+			throws Exception {
+		List<Result> results = new ArrayList<Result>();
+		for (Benchmark benchmark : benchmarks) {
+			if (filter == null || filter.matcher(benchmark.getName()).find()) {
+				Result result = run(benchmark);
+				System.out.println(result);
+				results.add(result);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * @return the time per operation in ns
+	 */
+	private double iterate(Benchmark benchmark) throws Exception {
+		long result = 0;
+		long operations = 0;
+		long start = System.nanoTime();
+		long end = start + iterationTime * 1000000L;
+		long now;
+
+		do {
+			for (int i = 0; i < BATCH; i++) {
+				result += benchmark.operation();
+			}
+			operations += BATCH;
+			now = System.nanoTime();
+		} while (now < end);
+
+		sink += result;
+		return (double) (now - start) / operations;
+	}
+
+	/**
+	 * the times per operation measured for a benchmark
+	 */
+	public static class Result {
+		private final String name;
+		private final double[] times;
+
+		public Result(String name, double[] times) {
+			this.name = name;
+			this.times = times;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the mean time per operation in ns
+		 */
+		public double getMean() {
+			double sum = 0;
+			for (double time : times)
+				sum += time;
+			return sum / times.length;
+		}
+
+		/**
+		 * @return the standard deviation of the iterations in ns
+		 */
+		public double getDeviation() {
+			if (times.length < 2)
+				return 0;
+
+			double mean = getMean();
+			double sum = 0;
+			for (double time : times)
+				sum += (time - mean) * (time - mean);
+			return Math.sqrt(sum / (times.length - 1));
+		}
+
+		public double getMin() {
+			double min = Double.MAX_VALUE;
+			for (double time : times)
+				min = Math.min(min, time);
+			return min;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-32s %12.1f +- %9.1f ns/op (min %.1f)",
+					name, getMean(), getDeviation(), getMin());
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		BenchmarkRunner runner = new BenchmarkRunner();
+		runner.setWarmupIterations(Integer.getInteger("sma.benchmark.warmup",
+				runner.warmupIterations));
+		runner.setMeasurementIterations(Integer.getInteger(
+				"sma.benchmark.iterations", runner.measurementIterations));
+		runner.setIterationTime(Long.getLong("sma.benchmark.time",
+				runner.iterationTime));
+
+		Pattern filter = args.length > 0 ? Pattern.compile(args[0]) : null;
+		runner.run(CodecBenchmarks.all(), filter);
+	}
+}
@@ -0,0 +1,403 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.openhab.binding.sma.internal.hardware.devices.BluetoothSolarInverterPlant;
+import org.openhab.binding.sma.internal.hardware.devices.LRIDecoder;
+import org.openhab.binding.sma.internal.hardware.devices.SmaBluetoothAddress;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.InverterDataType;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.LRIDefinition;
+import org.openhab.binding.sma.internal.layers.Bluetooth;
+import org.openhab.binding.sma.internal.layers.Fcs16;
+import org.openhab.binding.sma.internal.layers.FrameEncoder;
+import org.openhab.binding.sma.internal.layers.PacketView;
+
+/**
+ * Micro-benchmarks of the hot paths of a polling cycle: encoding a request,
+ * unescaping and checking a response, decoding its records and converting
+ * the values, and looking up the inverter of a frame by its address.
+ *
+ * The responses are built like the ones of a plant: spot values of an
+ * inverter with some bytes to be escaped, sent in one frame or split into
+ * fragments.
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public final class CodecBenchmarks {
+
+	private static final int L2SIGNATURE = 0x656003FF;
+
+	// records of the spot AC values, from power to grid frequency
+	private static final int FIRST_LRI = 0x00464000;
+	private static final int LAST_LRI = 0x004657FF;
+
+	// time stamp of the records
+	private static final int TIME = 1400000000;
+
+	// inverters of a large plant
+	private static final int PLANT_SIZE = 20;
+
+	private static final SmaBluetoothAddress INVERTER = new SmaBluetoothAddress(
+			"00:80:25:1D:7E:11");
+
+	private CodecBenchmarks() {
+	}
+
+	public static List<Benchmark> all() {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.add(encodeRequest("frame.encodeRequest",
+				InverterDataType.SpotACTotalPower.getCommand(),
+				InverterDataType.SpotACTotalPower.getFirst(),
+				InverterDataType.SpotACTotalPower.getLast()));
+		// every byte of the range has to be escaped
+		benchmarks.add(encodeRequest("frame.encodeEscaped", 0x7E7D1113,
+				0x7D7E1211, 0x137E7D12));
+		benchmarks.add(receive("receive.unescape", 0));
+		benchmarks.add(receive("receive.fragmented", 120));
+		benchmarks.add(fcs("fcs.sliceBy8", true));
+		benchmarks.add(fcs("fcs.bytewise", false));
+		benchmarks.add(decodeRecords());
+		benchmarks.add(getValue());
+		benchmarks.add(addressToString());
+		benchmarks.add(addressLookup());
+		benchmarks.add(addressEquals());
+		return benchmarks;
+	}
+
+	/**
+	 * builds a data request as sent to all inverters
+	 */
+	private static Benchmark encodeRequest(String name, final int command,
+			final int first, final int last) {
+		return new Benchmark(name) {
+			private final ReplayBluetooth layer = new ReplayBluetooth();
+
+			@Override
+			public long operation() {
+				layer.beginRequest((byte) 0x09, (byte) 0xA0, (short) 0,
+						(short) 0xFFFF, 0xFFFFFFFF);
+				layer.write(command);
+				layer.write(first);
+				layer.write(last);
+				layer.writePacketTrailer();
+				return layer.finishFrame();
+			}
+		};
+	}
+
+	/**
+	 * receives a data response, its packet is unescaped and checksummed
+	 *
+	 * @param fragmentSize
+	 *            size of the fragments of the packet or 0 to send it in one
+	 *            frame
+	 */
+	private static Benchmark receive(String name, final int fragmentSize) {
+		return new Benchmark(name) {
+			private ReplayBluetooth layer;
+
+			@Override
+			public void setUp() {
+				layer = new ReplayBluetooth(dataResponse(fragmentSize));
+			}
+
+			@Override
+			public long operation() throws IOException {
+				return layer.replay().limit();
+			}
+		};
+	}
+
+	private static Benchmark fcs(String name, final boolean bulk) {
+		return new Benchmark(name) {
+			private final byte[] packet = new byte[Bluetooth.MAXFRAMELENGTH];
+
+			@Override
+			public void setUp() {
+				new Random(42).nextBytes(packet);
+			}
+
+			@Override
+			public long operation() {
+				if (bulk)
+					return Fcs16.checksum(packet, 0, packet.length);
+
+				int crc = Fcs16.INITIAL;
+				for (int i = 0; i < packet.length; i++)
+					crc = Fcs16.update(crc, packet[i]);
+				return crc ^ 0xFFFF;
+			}
+		};
+	}
+
+	private static Benchmark decodeRecords() {
+		return new Benchmark("lri.decodeRecords") {
+			private final PacketView view = new PacketView();
+			private final BluetoothSolarInverterPlant.Data data = new BluetoothSolarInverterPlant.Data(
+					INVERTER);
+			private ByteBuffer packet;
+
+			@Override
+			public void setUp() throws IOException {
+				packet = receivedPacket();
+			}
+
+			@Override
+			public long operation() {
+				LRIDecoder.decodeRecords(view.wrap(packet), data, 0);
+				return data.getRawValue(LRIDefinition.GridMsTotW);
+			}
+		};
+	}
+
+	private static Benchmark getValue() {
+		return new Benchmark("data.getValue") {
+			private final BluetoothSolarInverterPlant.Data data = new BluetoothSolarInverterPlant.Data(
+					INVERTER);
+			private final List<LRIDefinition> lris = new ArrayList<LRIDefinition>();
+			private int next = 0;
+
+			@Override
+			public void setUp() throws IOException {
+				LRIDecoder.decodeRecords(
+						new PacketView().wrap(receivedPacket()), data, 0);
+				for (LRIDefinition lri : LRIDefinition.values()) {
+					if (data.isValid(lri))
+						lris.add(lri);
+				}
+			}
+
+			@Override
+			public long operation() {
+				LRIDefinition lri = lris.get(next);
+				next = (next + 1) % lris.size();
+				return data.getValue(lri).length();
+			}
+		};
+	}
+
+	private static Benchmark addressToString() {
+		return new Benchmark("address.toString") {
+			private final SmaBluetoothAddress[] addresses = plant();
+			private int next = 0;
+
+			@Override
+			public long operation() {
+				SmaBluetoothAddress address = addresses[next];
+				next = (next + 1) % addresses.length;
+				return address.toString().length();
+			}
+		};
+	}
+
+	/**
+	 * finds the inverter of a received frame by the address in its header,
+	 * the way the plant looks up its inverters
+	 */
+	private static Benchmark addressLookup() {
+		return new Benchmark("address.lookup") {
+			private final SmaBluetoothAddress[] addresses = plant();
+			private final Map<String, BluetoothSolarInverterPlant.Data> invertersByAddress = new HashMap<String, BluetoothSolarInverterPlant.Data>();
+			private final SmaBluetoothAddress received = new SmaBluetoothAddress();
+			private int next = 0;
+
+			@Override
+			public void setUp() {
+				for (SmaBluetoothAddress address : addresses) {
+					invertersByAddress.put(address.toString(),
+							new BluetoothSolarInverterPlant.Data(address));
+				}
+			}
+
+			@Override
+			public long operation() {
+				received.setAddress(addresses[next].getAddress(), 0);
+				next = (next + 1) % addresses.length;
+				return invertersByAddress.get(received.toString()) != null ? 1
+						: 0;
+			}
+		};
+	}
+
+	/**
+	 * compares the sender of a frame with all inverters of the plant
+	 */
+	private static Benchmark addressEquals() {
+		return new Benchmark("address.equals") {
+			private final SmaBluetoothAddress[] addresses = plant();
+			private final SmaBluetoothAddress received = new SmaBluetoothAddress();
+			private int next = 0;
+
+			@Override
+			public long operation() {
+				received.setAddress(addresses[next].getAddress(), 0);
+				next = (next + 1) % addresses.length;
+
+				long matches = 0;
+				for (SmaBluetoothAddress address : addresses) {
+					if (address.equals(received))
+						matches++;
+				}
+				return matches;
+			}
+		};
+	}
+
+	private static SmaBluetoothAddress[] plant() {
+		SmaBluetoothAddress[] addresses = new SmaBluetoothAddress[PLANT_SIZE];
+		for (int i = 0; i < addresses.length; i++) {
+			addresses[i] = new SmaBluetoothAddress(String.format(
+					"00:80:25:1D:%02X:%02X", i * 7, 0x10 + i));
+		}
+		return addresses;
+	}
+
+	/**
+	 * @return the unescaped data response as returned by the layer
+	 */
+	private static ByteBuffer receivedPacket() throws IOException {
+		ByteBuffer received = new ReplayBluetooth(dataResponse(0)).replay();
+		ByteBuffer packet = ByteBuffer.allocate(received.limit()).order(
+				ByteOrder.LITTLE_ENDIAN);
+		packet.put(received);
+		packet.flip();
+		return packet;
+	}
+
+	/**
+	 * builds the frames of a response to a query of the spot values
+	 *
+	 * @param fragmentSize
+	 *            size of the fragments of the packet or 0 to send it in one
+	 *            frame
+	 */
+	private static byte[] dataResponse(int fragmentSize) {
+		ByteBuffer payload = ByteBuffer.allocate(Bluetooth.MAXPACKETLENGTH)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		payload.putInt(0x51000201);
+		payload.putInt(FIRST_LRI);
+		payload.putInt(LAST_LRI);
+
+		int value = 0;
+		for (LRIDefinition lri : LRIDefinition.values()) {
+			int code = lri.getValue();
+			LRIDecoder.Entry entry = LRIDecoder.lookup(code);
+			if (code < FIRST_LRI || code > LAST_LRI || entry == null)
+				continue;
+
+			int record = payload.position();
+			switch (entry.getWidth()) {
+			case DWORD:
+				payload.putInt((LRIDecoder.DT_SLONG << 24) | code);
+				payload.putInt(TIME);
+				// some bytes of the values have to be escaped
+				payload.putInt((++value << 16) | 0x117E);
+				break;
+			case QWORD:
+				payload.putInt((LRIDecoder.DT_ULONG << 24) | code);
+				payload.putInt(TIME);
+				payload.putLong((++value << 16) | 0x7D00);
+				break;
+			default:
+				continue;
+			}
+			payload.position(record + entry.getRecordSize());
+		}
+
+		FrameEncoder encoder = new FrameEncoder(2 * Bluetooth.MAXPACKETLENGTH);
+		encoder.putRaw((byte) 0x7E);
+		encoder.putRaw((byte) 0); // length
+		encoder.putRaw((byte) 0);
+		encoder.putRaw((byte) 0); // checksum
+		for (int i = 0; i < 6; i++)
+			encoder.putRaw(INVERTER.get(i));
+		for (int i = 0; i < 6; i++)
+			encoder.putRaw((byte) 0);
+		encoder.putRaw((byte) 0x01);
+		encoder.putRaw((byte) 0x00);
+
+		encoder.beginPacket();
+		encoder.putInt(L2SIGNATURE);
+		encoder.put((byte) ((payload.position() + 28) / 4));
+		encoder.put((byte) 0xA0);
+		encoder.putShort((short) 125);
+		encoder.putInt(0x3A8B7E11);
+		encoder.putShort((short) 0);
+		encoder.putShort((short) 0x0071);
+		encoder.putInt(0x7E3A5D11);
+		encoder.putShort((short) 0);
+		encoder.putShort((short) 0); // error code
+		encoder.putShort((short) 0); // fragment
+		encoder.putShort((short) 0x8005);
+		encoder.put(payload.array(), 0, payload.position());
+		encoder.endPacket();
+
+		int length = encoder.finish();
+		byte[] frame = encoder.array();
+		if (fragmentSize == 0 || length - Bluetooth.HEADERLENGTH <= fragmentSize)
+			return Arrays.copyOf(frame, length);
+
+		// split the packet into frames, all but the last with command 0x08
+		ByteArrayOutputStream frames = new ByteArrayOutputStream();
+		for (int start = Bluetooth.HEADERLENGTH; start < length; start += fragmentSize) {
+			int size = Math.min(fragmentSize, length - start);
+			byte[] header = Arrays.copyOf(frame,
+					Bluetooth.HEADERLENGTH);
+			header[1] = (byte) ((size + Bluetooth.HEADERLENGTH) & 0xFF);
+			header[2] = (byte) ((size + Bluetooth.HEADERLENGTH) >>> 8);
+			header[3] = (byte) (header[0] ^ header[1] ^ header[2]);
+			header[16] = (byte) (start + size < length ? 0x08 : 0x01);
+			frames.write(header, 0, header.length);
+			frames.write(frame, start, size);
+		}
+		return frames.toByteArray();
+	}
+
+	/**
+	 * A layer which isn't connected, it writes frames into its buffer and
+	 * receives the same frames again and again.
+	 */
+	private static class ReplayBluetooth extends Bluetooth {
+		private final ByteArrayInputStream replayed;
+
+		ReplayBluetooth() {
+			this(new byte[0]);
+		}
+
+		ReplayBluetooth(byte[] frames) {
+			super(INVERTER);
+
+			replayed = new ByteArrayInputStream(frames);
+			in = new DataInputStream(replayed);
+		}
+
+		int finishFrame() {
+			return frame.finish();
+		}
+
+		ByteBuffer replay() throws IOException {
+			replayed.reset();
+			return receiveAll(0x01);
+		}
+	}
+}
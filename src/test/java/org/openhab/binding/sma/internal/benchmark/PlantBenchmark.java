@@ -0,0 +1,514 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.benchmark;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.microedition.io.StreamConnection;
+
+import org.openhab.binding.sma.SmaBindingProvider;
+import org.openhab.binding.sma.internal.SmaBinding;
+import org.openhab.binding.sma.internal.SmaBindingConfig;
+import org.openhab.binding.sma.internal.hardware.devices.SmaBluetoothAddress;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.InverterDataType;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.LRIDefinition;
+import org.openhab.binding.sma.internal.layers.Bluetooth;
+import org.openhab.binding.sma.internal.layers.StreamConnector;
+import org.openhab.binding.sma.internal.simulator.BluetoothPlantSimulator;
+import org.openhab.core.binding.BindingChangeListener;
+import org.openhab.core.events.EventPublisher;
+import org.openhab.core.items.Item;
+import org.openhab.core.library.items.NumberItem;
+import org.openhab.core.types.Command;
+import org.openhab.core.types.State;
+import org.osgi.service.cm.ConfigurationException;
+
+/**
+ * Drives the polling cycle of the {@link SmaBinding} against simulated
+ * plants and measures what a cycle costs: its latency, the requests and
+ * bytes on the link, the memory allocated by the binding and the number of
+ * events published.
+ *
+ * The binding is configured by {@link SmaBinding#updated(java.util.Dictionary)}
+ * like in openhab.cfg, one plant per simulator. The connections of the
+ * bluetooth layers are routed to the simulators. The items are spread over
+ * the plants and over the numeric values of the inverters. Every cycle polls
+ * all data types bound to an item. The cycles are run until every plant is
+ * initialised and has published its items, the following warmup cycles are
+ * not measured either.
+ *
+ * Run it from the compiled test classes by
+ *
+ * <pre>
+ * java -cp target/test-classes:target/classes:... org.openhab.binding.sma.internal.benchmark.PlantBenchmark
+ * </pre>
+ *
+ * The setup is read from the system properties
+ * <code>sma.benchmark.items</code>, <code>sma.benchmark.plants</code>,
+ * <code>sma.benchmark.inverters</code> (per plant),
+ * <code>sma.benchmark.cycles</code>, <code>sma.benchmark.warmup</code> and
+ * <code>sma.benchmark.latency</code> (of a response in ms).
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public class PlantBenchmark {
+
+	// data types of the items, the ones read in every cycle
+	private static final InverterDataType[] DATA_TYPES = {
+			InverterDataType.SpotACTotalPower, InverterDataType.SpotACPower,
+			InverterDataType.SpotACVoltage, InverterDataType.SpotGridFrequency,
+			InverterDataType.SpotDCPower, InverterDataType.SpotDCVoltage,
+			InverterDataType.EnergyProduction };
+
+	private int items = 50;
+	private int plants = 1;
+	private int inverters = 3;
+	private int cycles = 50;
+	private int warmupCycles = 3;
+	private long latency = 20;
+
+	// time (in ms) to wait for the plants to be initialised
+	private static final long CONNECT_TIMEOUT = 60000;
+
+	private final AtomicLong events = new AtomicLong();
+
+	// items published at least once
+	private final Set<String> published = Collections
+			.synchronizedSet(new HashSet<String>());
+
+	public void setItems(int items) {
+		this.items = items;
+	}
+
+	public void setPlants(int plants) {
+		this.plants = plants;
+	}
+
+	/**
+	 * @param inverters
+	 *            number of inverters of every plant
+	 */
+	public void setInverters(int inverters) {
+		this.inverters = inverters;
+	}
+
+	public void setCycles(int cycles) {
+		this.cycles = cycles;
+	}
+
+	public void setWarmupCycles(int warmupCycles) {
+		this.warmupCycles = warmupCycles;
+	}
+
+	/**
+	 * @param latency
+	 *            time (in ms) until a response is sent
+	 */
+	public void setLatency(long latency) {
+		this.latency = latency;
+	}
+
+	public Result run() throws ConfigurationException, InterruptedException {
+		final List<BluetoothPlantSimulator> simulators = new ArrayList<BluetoothPlantSimulator>();
+		Hashtable<String, String> config = new Hashtable<String, String>();
+		// every cycle is due
+		config.put("refresh", "1");
+		for (int i = 0; i < plants; i++) {
+			BluetoothPlantSimulator simulator = new BluetoothPlantSimulator(
+					String.format("00:80:25:%02X:00:01", i + 1), inverters, i,
+					false);
+			simulator.setLatency(latency);
+			simulators.add(simulator);
+			config.put(plantId(i) + ".plant", simulator.getRootAddress()
+					.toString());
+		}
+
+		// connects the layers to the simulator of their address
+		Bluetooth.setDefaultConnector(new StreamConnector() {
+			@Override
+			public StreamConnection open(SmaBluetoothAddress address)
+					throws IOException {
+				for (BluetoothPlantSimulator simulator : simulators) {
+					if (simulator.getRootAddress().equals(address))
+						return simulator.open(address);
+				}
+				throw new IOException("no SMA plant at " + address);
+			}
+		});
+
+		BenchmarkBinding binding = new BenchmarkBinding();
+		binding.setEventPublisher(new EventPublisher() {
+			@Override
+			public void postUpdate(String itemName, State newState) {
+				events.incrementAndGet();
+				published.add(itemName);
+			}
+
+			@Override
+			public void sendCommand(String itemName, Command command) {
+				events.incrementAndGet();
+			}
+
+			@Override
+			public void postCommand(String itemName, Command command) {
+				events.incrementAndGet();
+			}
+		});
+		ItemProvider provider = new ItemProvider();
+		provider.bind(items, plants);
+		binding.addBindingProvider(provider);
+
+		try {
+			binding.updated(config);
+			waitForPlants(binding, provider);
+
+			for (int i = 0; i < warmupCycles; i++) {
+				binding.cycle();
+			}
+
+			long[] threads = pollingThreads();
+			long requests = requestCount(simulators);
+			// the bytes sent by the binding are received by the simulators
+			long sent = bytesReceived(simulators);
+			long received = bytesSent(simulators);
+			long allocated = allocatedBytes(threads);
+			long published = events.get();
+
+			long[] latencies = new long[cycles];
+			for (int i = 0; i < cycles; i++) {
+				long start = System.nanoTime();
+				binding.cycle();
+				latencies[i] = System.nanoTime() - start;
+			}
+
+			return new Result(items, latencies,
+					requestCount(simulators) - requests,
+					bytesReceived(simulators) - sent,
+					bytesSent(simulators) - received,
+					allocated < 0 ? -1 : allocatedBytes(threads) - allocated,
+					events.get() - published);
+		} finally {
+			binding.deactivate();
+			Bluetooth.setDefaultConnector(null);
+			for (BluetoothPlantSimulator simulator : simulators) {
+				simulator.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Runs cycles until every plant has published an item. The plants are
+	 * initialised in the background, they are polled once they are ready.
+	 */
+	private void waitForPlants(BenchmarkBinding binding, ItemProvider provider)
+			throws InterruptedException {
+		long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+		while (true) {
+			Set<String> ready = new HashSet<String>();
+			synchronized (published) {
+				for (String itemName : published) {
+					ready.add(provider.getDeviceConfig(itemName).getDeviceId());
+				}
+			}
+			if (ready.size() >= Math.min(plants, items))
+				return;
+
+			if (System.currentTimeMillis() > deadline)
+				throw new IllegalStateException("only " + ready
+						+ " initialised");
+			binding.cycle();
+			Thread.sleep(10);
+		}
+	}
+
+	private static String plantId(int plant) {
+		return "plant" + plant;
+	}
+
+	private static long requestCount(List<BluetoothPlantSimulator> simulators) {
+		long count = 0;
+		for (BluetoothPlantSimulator simulator : simulators)
+			count += simulator.getRequestCount();
+		return count;
+	}
+
+	private static long bytesReceived(List<BluetoothPlantSimulator> simulators) {
+		long count = 0;
+		for (BluetoothPlantSimulator simulator : simulators)
+			count += simulator.getBytesReceived();
+		return count;
+	}
+
+	private static long bytesSent(List<BluetoothPlantSimulator> simulators) {
+		long count = 0;
+		for (BluetoothPlantSimulator simulator : simulators)
+			count += simulator.getBytesSent();
+		return count;
+	}
+
+	/**
+	 * @return the ids of the threads running the polling cycle: the caller
+	 *         and the pollers of the links
+	 */
+	private static long[] pollingThreads() {
+		List<Long> ids = new ArrayList<Long>();
+		ids.add(Thread.currentThread().getId());
+
+		Thread[] threads = new Thread[Thread.activeCount() * 2];
+		int count = Thread.enumerate(threads);
+		for (int i = 0; i < count; i++) {
+			if (threads[i].getName().startsWith("SMA poller"))
+				ids.add(threads[i].getId());
+		}
+
+		long[] result = new long[ids.size()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = ids.get(i);
+		return result;
+	}
+
+	/**
+	 * Sums up the bytes allocated by the given threads. The allocation
+	 * counters are an extension of the HotSpot VM, so they are looked up by
+	 * reflection.
+	 *
+	 * @return the bytes allocated or -1 if the VM doesn't count them
+	 */
+	private static long allocatedBytes(long[] threads) {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		try {
+			Method method = Class.forName("com.sun.management.ThreadMXBean")
+					.getMethod("getThreadAllocatedBytes", long[].class);
+			long sum = 0;
+			for (long bytes : (long[]) method.invoke(bean, threads)) {
+				if (bytes < 0)
+					return -1;
+				sum += bytes;
+			}
+			return sum;
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * the costs of the measured cycles
+	 */
+	public static class Result {
+		private final int items;
+		private final long[] latencies;
+		private final long requests;
+		private final long bytesSent;
+		private final long bytesReceived;
+		private final long allocated;
+		private final long events;
+
+		public Result(int items, long[] latencies, long requests,
+				long bytesSent, long bytesReceived, long allocated, long events) {
+			this.items = items;
+			this.latencies = latencies.clone();
+			Arrays.sort(this.latencies);
+			this.requests = requests;
+			this.bytesSent = bytesSent;
+			this.bytesReceived = bytesReceived;
+			this.allocated = allocated;
+			this.events = events;
+		}
+
+		public int getCycles() {
+			return latencies.length;
+		}
+
+		/**
+		 * @param percentile
+		 *            between 0 and 100
+		 * @return the latency of a cycle in ms
+		 */
+		public double getLatency(double percentile) {
+			int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+			return latencies[Math.max(0, Math.min(index, latencies.length - 1))] / 1e6;
+		}
+
+		/**
+		 * @return the mean latency of a cycle in ms
+		 */
+		public double getMeanLatency() {
+			long sum = 0;
+			for (long latency : latencies)
+				sum += latency;
+			return sum / 1e6 / latencies.length;
+		}
+
+		public double getRequestsPerCycle() {
+			return (double) requests / latencies.length;
+		}
+
+		/**
+		 * @return bytes sent to the plants per cycle
+		 */
+		public double getBytesSentPerCycle() {
+			return (double) bytesSent / latencies.length;
+		}
+
+		/**
+		 * @return bytes received from the plants per cycle
+		 */
+		public double getBytesReceivedPerCycle() {
+			return (double) bytesReceived / latencies.length;
+		}
+
+		/**
+		 * @return bytes allocated by the binding per cycle or -1 if unknown
+		 */
+		public double getAllocatedPerCycle() {
+			return allocated < 0 ? -1 : (double) allocated / latencies.length;
+		}
+
+		public double getEventsPerCycle() {
+			return (double) events / latencies.length;
+		}
+
+		/**
+		 * @return items which can be refreshed per second
+		 */
+		public double getItemsPerSecond() {
+			return items * 1000 / getMeanLatency();
+		}
+
+		@Override
+		public String toString() {
+			return String
+					.format("cycles: %d, items: %d%n"
+							+ "latency (ms): p50 %.1f, p90 %.1f, p99 %.1f, max %.1f%n"
+							+ "requests/cycle: %.1f, bytes/cycle: %.0f sent, %.0f received%n"
+							+ "allocated/cycle: %.0f bytes, events/cycle: %.1f%n"
+							+ "items/s: %.1f", getCycles(), items,
+							getLatency(50), getLatency(90), getLatency(99),
+							getLatency(100), getRequestsPerCycle(),
+							getBytesSentPerCycle(), getBytesReceivedPerCycle(),
+							getAllocatedPerCycle(), getEventsPerCycle(),
+							getItemsPerSecond());
+		}
+	}
+
+	/**
+	 * A binding polling the simulated plants, its cycle is run by the
+	 * benchmark instead of its own thread.
+	 */
+	private static class BenchmarkBinding extends SmaBinding {
+
+		void cycle() {
+			execute();
+		}
+	}
+
+	/**
+	 * Number items bound to the values of the plants
+	 */
+	private static class ItemProvider implements SmaBindingProvider {
+		private final Map<String, SmaBindingConfig> configs = new LinkedHashMap<String, SmaBindingConfig>();
+
+		/**
+		 * binds the items round robin to the plants and their values
+		 */
+		void bind(int items, int plants) {
+			List<LRIDefinition> lris = new ArrayList<LRIDefinition>();
+			for (InverterDataType type : DATA_TYPES) {
+				for (LRIDefinition lri : LRIDefinition.values()) {
+					if (lri.getData() == type)
+						lris.add(lri);
+				}
+			}
+
+			for (int i = 0; i < items; i++) {
+				LRIDefinition lri = lris.get((i / plants) % lris.size());
+				configs.put("sma_" + i, new SmaBindingConfig(NumberItem.class,
+						plantId(i % plants), lri));
+			}
+		}
+
+		@Override
+		public Collection<String> getItemNames() {
+			return configs.keySet();
+		}
+
+		@Override
+		public boolean providesBindingFor(String itemName) {
+			return configs.containsKey(itemName);
+		}
+
+		@Override
+		public boolean providesBinding() {
+			return !configs.isEmpty();
+		}
+
+		@Override
+		public void addBindingChangeListener(BindingChangeListener listener) {
+		}
+
+		@Override
+		public void removeBindingChangeListener(BindingChangeListener listener) {
+		}
+
+		@Override
+		public SmaBindingConfig getDeviceConfig(String itemName) {
+			return configs.get(itemName);
+		}
+
+		@Override
+		public void setDevices(Map<String, SmaDevice> deviceCache) {
+		}
+
+		@Override
+		public Class<? extends Item> getItemType(String itemName) {
+			SmaBindingConfig config = configs.get(itemName);
+			return config != null ? config.getItemType() : null;
+		}
+
+		@Override
+		public LRIDefinition getDefinition(String itemName) {
+			SmaBindingConfig config = configs.get(itemName);
+			return config != null ? config.getLRIDefinition() : null;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		PlantBenchmark benchmark = new PlantBenchmark();
+		benchmark.setItems(Integer.getInteger("sma.benchmark.items",
+				benchmark.items));
+		benchmark.setPlants(Integer.getInteger("sma.benchmark.plants",
+				benchmark.plants));
+		benchmark.setInverters(Integer.getInteger("sma.benchmark.inverters",
+				benchmark.inverters));
+		benchmark.setCycles(Integer.getInteger("sma.benchmark.cycles",
+				benchmark.cycles));
+		benchmark.setWarmupCycles(Integer.getInteger("sma.benchmark.warmup",
+				benchmark.warmupCycles));
+		benchmark.setLatency(Long.getLong("sma.benchmark.latency",
+				benchmark.latency));
+
+		System.out.println(benchmark.run());
+	}
+}
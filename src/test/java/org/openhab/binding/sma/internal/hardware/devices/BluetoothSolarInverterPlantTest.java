@@ -0,0 +1,356 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.hardware.devices;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Test;
+import org.openhab.binding.sma.internal.SmaBinding;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.InverterDataType;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.LRIDefinition;
+import org.openhab.binding.sma.internal.layers.Bluetooth;
+import org.openhab.binding.sma.internal.simulator.BluetoothPlantSimulator;
+import org.openhab.binding.sma.internal.simulator.SimulatedInverter;
+
+/**
+ * Polls a {@link BluetoothPlantSimulator}.
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public class BluetoothSolarInverterPlantTest {
+
+	private static final Set<InverterDataType> TYPES = EnumSet.of(
+			InverterDataType.SpotACTotalPower,
+			InverterDataType.SpotGridFrequency,
+			InverterDataType.BatteryChargeStatus);
+
+	private BluetoothPlantSimulator simulator;
+
+	private BluetoothSolarInverterPlant plant;
+
+	private SmaCursorStore cursors;
+
+	@After
+	public void tearDown() {
+		if (plant != null)
+			plant.close();
+		if (simulator != null)
+			simulator.shutdown();
+	}
+
+	private void connect(BluetoothPlantSimulator simulator)
+			throws IOException {
+		connect(simulator, null);
+	}
+
+	private void connect(final BluetoothPlantSimulator simulator,
+			SmaTopologyCache cache) throws IOException {
+		this.simulator = simulator;
+		simulator.setLatency(1);
+
+		SmaBinding.Device device = new SmaBinding.Device("plant");
+		device.setPlant(simulator.getRootAddress().toString());
+		device.setTimeout(200);
+		device.setTopologyCache(cache);
+		device.setCursorStore(cursors);
+
+		plant = new BluetoothSolarInverterPlant(device) {
+			@Override
+			protected Bluetooth createLayer() {
+				Bluetooth layer = super.createLayer();
+				layer.setConnector(simulator);
+				return layer;
+			}
+		};
+		plant.init();
+	}
+
+	private static LRIDefinition lriOf(InverterDataType type) {
+		for (LRIDefinition lri : LRIDefinition.values()) {
+			if (lri.getData() == type)
+				return lri;
+		}
+		throw new IllegalArgumentException("no LRI of " + type);
+	}
+
+	/**
+	 * keeps the cursors in memory and records every cursor stored
+	 */
+	private static class RecordingCursorStore extends SmaCursorStore {
+		final List<Long> stored = new ArrayList<Long>();
+
+		RecordingCursorStore() {
+			super(null);
+		}
+
+		@Override
+		public synchronized void put(SmaSerial serial, String name, long value) {
+			stored.add(value);
+			super.put(serial, name, value);
+		}
+	}
+
+	/**
+	 * records the timestamps of the archive records
+	 */
+	private static class RecordingListener implements SmaArchiveListener {
+		final List<Integer> timestamps = new ArrayList<Integer>();
+
+		@Override
+		public void archived(SmaSerial serial, SmaArchiveType type,
+				int timestamp, long totalWh) {
+			timestamps.add(timestamp);
+		}
+
+		int last() {
+			return timestamps.get(timestamps.size() - 1);
+		}
+	}
+
+	/**
+	 * records the events of the event logs
+	 */
+	private static class RecordingEventLogListener implements
+			SmaEventLogListener {
+		final List<SmaEvent> events = new ArrayList<SmaEvent>();
+
+		@Override
+		public void logged(SmaSerial serial, SmaEvent event) {
+			events.add(event);
+		}
+	}
+
+	private static SmaSerial serialOf(SimulatedInverter inverter) {
+		return new SmaSerial(inverter.getSUSyID(), inverter.getSerial());
+	}
+
+	private static void assertAscending(List<Integer> timestamps, long after) {
+		for (int timestamp : timestamps) {
+			assertTrue(timestamp + " not after " + after, timestamp > after);
+			after = timestamp;
+		}
+	}
+
+	@Test
+	public void testEscapedFragments() throws IOException {
+		// serials and values which have to be escaped, frames split
+		BluetoothPlantSimulator simulator = new BluetoothPlantSimulator(
+				BluetoothPlantSimulator.DEFAULT_ROOT_ADDRESS, 3, 1, true);
+		simulator.setMaxFrameLength(60);
+		connect(simulator);
+
+		assertEquals(3, plant.getInverters().size());
+
+		plant.readInverterData(TYPES);
+		assertTrue(plant.isValid(lriOf(InverterDataType.SpotACTotalPower)));
+		assertTrue(plant.isValid(lriOf(InverterDataType.SpotGridFrequency)));
+		assertEquals(0, simulator.getInvalidCount());
+	}
+
+	@Test
+	public void testLostResponsesAreSentAgain() throws IOException {
+		BluetoothPlantSimulator simulator = new BluetoothPlantSimulator(2, 3);
+		connect(simulator);
+		// the logon isn't sent again, only the data requests are
+		plant.readInverterData(TYPES);
+		simulator.setLoss(0.3);
+
+		for (int i = 0; i < 5; i++) {
+			plant.readInverterData(TYPES);
+			assertTrue(plant.isValid(lriOf(InverterDataType.SpotACTotalPower)));
+		}
+		assertTrue(simulator.getLostCount() > 0);
+	}
+
+	@Test
+	public void testUnavailableLRIKeepsLogon() throws IOException {
+		BluetoothPlantSimulator simulator = new BluetoothPlantSimulator(2, 1);
+		simulator.setUnavailable(lriOf(InverterDataType.BatteryChargeStatus));
+		connect(simulator);
+
+		plant.readInverterData(TYPES);
+		long logons = simulator.getLogonCount();
+
+		for (int i = 0; i < 3; i++) {
+			plant.readInverterData(TYPES);
+			assertTrue(plant.isValid(lriOf(InverterDataType.SpotACTotalPower)));
+			assertFalse(plant.isValid(lriOf(InverterDataType.BatteryChargeStatus)));
+		}
+		assertEquals(logons, simulator.getLogonCount());
+	}
+
+	@Test
+	public void testInitWaitsForSession() throws Exception {
+		BluetoothPlantSimulator simulator = new BluetoothPlantSimulator(2, 9);
+		connect(simulator);
+		plant.disconnect();
+
+		final IOException[] failure = { null };
+		Thread connector = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					plant.init();
+				} catch (IOException e) {
+					failure[0] = e;
+				}
+			}
+		});
+		// e.g. a download of the logs in progress
+		synchronized (plant.getSession()) {
+			connector.start();
+			connector.join(500);
+			assertTrue(connector.isAlive());
+			assertEquals(1, simulator.getDiscoveryCount());
+		}
+		connector.join(5000);
+		assertFalse(connector.isAlive());
+		assertNull(failure[0]);
+
+		plant.readInverterData(TYPES);
+		assertTrue(plant.isValid(lriOf(InverterDataType.SpotACTotalPower)));
+	}
+
+	@Test
+	public void testKnownTopologySkipsDiscovery() throws IOException {
+		BluetoothPlantSimulator simulator = new BluetoothPlantSimulator(3, 4);
+		SmaTopologyCache cache = new SmaTopologyCache(null);
+		connect(simulator, cache);
+		assertEquals(1, simulator.getDiscoveryCount());
+
+		SmaTopologyCache.Topology topology = cache.get(simulator
+				.getRootAddress().toString());
+		assertNotNull(topology);
+		assertEquals(3, topology.getInverters().size());
+		assertEquals(simulator.getInverters().get(0).getSerial(), topology
+				.getInverters().get(0).getSerial().getSerial());
+
+		plant.close();
+		connect(simulator, cache);
+		assertEquals(1, simulator.getDiscoveryCount());
+		assertEquals(3, plant.getInverters().size());
+
+		plant.readInverterData(TYPES);
+		assertTrue(plant.isValid(lriOf(InverterDataType.SpotACTotalPower)));
+	}
+
+	@Test
+	public void testChangedTopologyIsDiscovered() throws IOException {
+		BluetoothPlantSimulator simulator = new BluetoothPlantSimulator(2, 5);
+		String plantAddress = simulator.getRootAddress().toString();
+		SmaTopologyCache cache = new SmaTopologyCache(null);
+		// an inverter of another serial at the root address
+		cache.put(plantAddress, new SmaTopologyCache.Topology(4,
+				simulator.getRootAddress(), new SmaBluetoothAddress(
+						"00:1A:7D:DA:71:01"),
+				Collections.singletonList(new SmaTopologyCache.Inverter(
+						simulator.getRootAddress(), new SmaSerial((short) 0x83,
+								1234)))));
+
+		connect(simulator, cache);
+		assertEquals(1, simulator.getDiscoveryCount());
+		assertEquals(2, plant.getInverters().size());
+		assertEquals(2, cache.get(plantAddress).getInverters().size());
+	}
+
+	@Test
+	public void testArchiveAfterCursor() throws IOException {
+		BluetoothPlantSimulator simulator = new BluetoothPlantSimulator(1, 6);
+		SmaSerial serial = serialOf(simulator.getInverters().get(0));
+		long start = System.currentTimeMillis() / 1000 - 3600;
+		RecordingCursorStore cursors = new RecordingCursorStore();
+		cursors.put(serial, SmaArchiveType.Day.getCursorName(), start);
+		cursors.stored.clear();
+		this.cursors = cursors;
+		connect(simulator);
+
+		RecordingListener listener = new RecordingListener();
+		plant.readArchive(SmaArchiveType.Day, listener);
+		// a record every 5 minutes, all in one open span
+		assertTrue(listener.timestamps.size() >= 11);
+		assertAscending(listener.timestamps, start);
+		assertEquals(1, cursors.stored.size());
+		assertEquals(listener.last(), (long) cursors.stored.get(0));
+
+		// the next download continues after the last record
+		int last = listener.last();
+		listener.timestamps.clear();
+		plant.readArchive(SmaArchiveType.Day, listener);
+		assertAscending(listener.timestamps, last);
+	}
+
+	@Test
+	public void testClosedSpanMovesCursorToItsEnd() throws IOException {
+		BluetoothPlantSimulator simulator = new BluetoothPlantSimulator(1, 7);
+		SmaSerial serial = serialOf(simulator.getInverters().get(0));
+		long start = System.currentTimeMillis() / 1000 - 40 * 86400;
+		RecordingCursorStore cursors = new RecordingCursorStore();
+		cursors.put(serial, SmaArchiveType.Month.getCursorName(), start);
+		cursors.stored.clear();
+		this.cursors = cursors;
+		connect(simulator);
+
+		RecordingListener listener = new RecordingListener();
+		plant.readArchive(SmaArchiveType.Month, listener);
+		assertAscending(listener.timestamps, start);
+		assertTrue(listener.timestamps.size() >= 39);
+
+		// the span in the past is complete, even after its last record
+		assertEquals(2, cursors.stored.size());
+		assertEquals(start + SmaArchiveType.Month.getSpan(),
+				(long) cursors.stored.get(0));
+		// the current span is continued after its last record
+		assertEquals(listener.last(), (long) cursors.stored.get(1));
+	}
+
+	@Test
+	public void testEventLogAfterCursor() throws IOException {
+		BluetoothPlantSimulator simulator = new BluetoothPlantSimulator(1, 8);
+		SmaSerial serial = serialOf(simulator.getInverters().get(0));
+		RecordingCursorStore cursors = new RecordingCursorStore();
+		this.cursors = cursors;
+		connect(simulator);
+
+		// an entry every 6 hours of the last 7 days, newest first
+		RecordingEventLogListener listener = new RecordingEventLogListener();
+		plant.readEventLog(listener);
+		assertTrue(listener.events.size() >= 28);
+		SmaEvent newest = listener.events.get(0);
+		for (SmaEvent event : listener.events) {
+			assertEquals(serial, event.getSource());
+			assertTrue(newest.isAfter(event.getTimestamp(), event.getEntryID())
+					|| event == newest);
+		}
+		assertEquals(newest.getTimestamp(),
+				cursors.get(serial, SmaEvent.CURSOR_TIME, -1));
+		assertEquals(newest.getEntryID(),
+				cursors.get(serial, SmaEvent.CURSOR_ENTRY, -1));
+
+		// the next download skips the entries seen
+		listener.events.clear();
+		plant.readEventLog(listener);
+		for (SmaEvent event : listener.events) {
+			assertTrue(event.isAfter(newest.getTimestamp(),
+					newest.getEntryID()));
+		}
+	}
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.hardware.devices;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.InverterDataType;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.LRIDefinition;
+import org.openhab.binding.sma.internal.layers.PacketView;
+
+/**
+ * Decodes single records into the data of an inverter.
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public class LRIDecoderTest {
+
+	private static final int TIMESTAMP = 1400000000;
+
+	private final ByteBuffer packet = ByteBuffer.allocate(
+			PacketView.RECORDOFFSET + 64).order(ByteOrder.LITTLE_ENDIAN);
+
+	private final PacketView view = new PacketView();
+
+	private final BluetoothSolarInverterPlant.Data inverter = new BluetoothSolarInverterPlant.Data(
+			new SmaBluetoothAddress());
+
+	/**
+	 * @return the view of a packet with one record of the given code
+	 */
+	private PacketView record(int code) {
+		packet.clear();
+		for (int i = 0; i < packet.capacity(); i++) {
+			packet.put(i, (byte) 0);
+		}
+		packet.putInt(PacketView.RECORDOFFSET, code);
+		packet.putInt(PacketView.RECORDOFFSET + 4, TIMESTAMP);
+		return view.wrap(packet);
+	}
+
+	private void decodeInt(int code, int value) {
+		record(code);
+		packet.putInt(PacketView.RECORDOFFSET + 8, value);
+		LRIDecoder.lookup(code).decode(view, inverter);
+	}
+
+	private void decodeLong(int code, long value) {
+		record(code);
+		packet.putLong(PacketView.RECORDOFFSET + 8, value);
+		LRIDecoder.lookup(code).decode(view, inverter);
+	}
+
+	private long value(LRIDefinition lri) {
+		return inverter.getValues().get(lri);
+	}
+
+	@Test
+	public void testSpotValueNaNBecomesZero() {
+		int code = (LRIDecoder.DT_SLONG << 24) | 0x00464001;
+		decodeInt(code, 1234);
+		assertEquals(1234, value(LRIDefinition.GridMsWphsA));
+
+		decodeInt(code, SmaDevice.NaN_S32);
+		assertEquals(0, value(LRIDefinition.GridMsWphsA));
+
+		decodeInt(code, 1234);
+		decodeInt(code, SmaDevice.NaN_U32);
+		assertEquals(0, value(LRIDefinition.GridMsWphsA));
+	}
+
+	@Test
+	public void testCounterNaNKeepsLastValue() {
+		int code = 0x00260101;
+		decodeLong(code, 5000000);
+		assertEquals(5000000, value(LRIDefinition.MeteringTotWhOut));
+
+		inverter.invalidate(InverterDataType.EnergyProduction);
+		decodeLong(code, SmaDevice.NaN_S64);
+		assertEquals(5000000, value(LRIDefinition.MeteringTotWhOut));
+		assertTrue(inverter.isValid(LRIDefinition.MeteringTotWhOut));
+		decodeLong(code, SmaDevice.NaN_U64);
+		assertEquals(5000000, value(LRIDefinition.MeteringTotWhOut));
+	}
+
+	@Test
+	public void testSignedness() {
+		decodeInt((LRIDecoder.DT_SLONG << 24) | 0x00464001, -5);
+		assertEquals(-5, value(LRIDefinition.GridMsWphsA));
+
+		decodeInt((LRIDecoder.DT_ULONG << 24) | 0x00465701, 0xFFFFFFF0);
+		assertEquals(0xFFFFFFF0L, value(LRIDefinition.GridMsHz));
+	}
+
+	@Test
+	public void testCutOffRecordIsSkipped() {
+		int code = 0x00260101;
+		record(code);
+		packet.putLong(PacketView.RECORDOFFSET + 8, 5000000);
+		// the packet ends within the value of the counter
+		packet.limit(PacketView.RECORDOFFSET + 12 + PacketView.TRAILERLENGTH);
+
+		LRIDecoder.decodeRecords(view, inverter, 0);
+		assertFalse(inverter.isValid(LRIDefinition.MeteringTotWhOut));
+	}
+
+	@Test
+	public void testLookup() {
+		// an LRI without class matches all of its classes
+		assertSame(LRIDefinition.GridMsHz, LRIDecoder.lookup(0x00465701)
+				.getLRIDefinition());
+		assertSame(LRIDefinition.GridMsHz, LRIDecoder.lookup(0x40465702)
+				.getLRIDefinition());
+		assertEquals(LRIDecoder.Width.QWORD, LRIDecoder.lookup(0x00260101)
+				.getWidth());
+		assertNull(LRIDecoder.lookup(0x00FFFF01));
+
+		// the size of an unknown record is guessed by its data type
+		assertEquals(28, LRIDecoder.recordSize(0x00FFFF01));
+		assertEquals(40, LRIDecoder.recordSize(0x10FFFF01));
+		assertEquals(40, LRIDecoder.recordSize(0x08FFFF01));
+	}
+
+	@Test
+	public void testStatus() {
+		int code = (LRIDecoder.DT_STATUS << 24) | 0x00214801;
+		record(code);
+		packet.putInt(PacketView.RECORDOFFSET + 8, 0x00000123);
+		// the attribute which is set
+		packet.putInt(PacketView.RECORDOFFSET + 12, 0x01000133);
+		packet.putInt(PacketView.RECORDOFFSET + 16, 0x00FFFFFE);
+		LRIDecoder.lookup(code).decode(view, inverter);
+
+		assertEquals(0x133, value(LRIDefinition.OperationHealth));
+	}
+
+	@Test
+	public void testVersion() {
+		int code = (LRIDecoder.DT_STATUS << 24) | 0x00823401;
+		record(code);
+		packet.put(PacketView.RECORDOFFSET + 24, (byte) 4);
+		packet.put(PacketView.RECORDOFFSET + 25, (byte) 5);
+		packet.put(PacketView.RECORDOFFSET + 26, (byte) 0x01);
+		packet.put(PacketView.RECORDOFFSET + 27, (byte) 0x03);
+		LRIDecoder.lookup(code).decode(view, inverter);
+
+		assertEquals("03.01.05.R",
+				inverter.getValues().getText(LRIDefinition.NameplatePkgRev));
+	}
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.hardware.devices;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public class SmaCursorStoreTest {
+
+	private static final SmaSerial SERIAL = new SmaSerial((short) 131,
+			2100000000);
+
+	private static final String DAY = SmaArchiveType.Day.getCursorName();
+
+	private static final String MONTH = SmaArchiveType.Month.getCursorName();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testReadAgain() throws IOException {
+		File file = new File(folder.getRoot(), SmaCursorStore.FILE_NAME);
+		SmaCursorStore store = new SmaCursorStore(file);
+		assertEquals(-1, store.get(SERIAL, DAY, -1));
+
+		store.put(SERIAL, DAY, 1400000000);
+		store.put(SERIAL, MONTH, 1399939200);
+		// the file is replaced at once
+		assertFalse(new File(file.getPath() + ".tmp").exists());
+
+		store = new SmaCursorStore(file);
+		assertEquals(1400000000, store.get(SERIAL, DAY, -1));
+		assertEquals(1399939200, store.get(SERIAL, MONTH, -1));
+		// the cursors are kept per inverter
+		assertEquals(-1, store.get(new SmaSerial((short) 131, 2100000001),
+				DAY, -1));
+	}
+
+	@Test
+	public void testInvalidCursorIsIgnored() throws IOException {
+		File file = folder.newFile(SmaCursorStore.FILE_NAME);
+		FileWriter writer = new FileWriter(file);
+		writer.write("131.2100000000.archive.day=yesterday\n");
+		writer.close();
+
+		assertEquals(-1, new SmaCursorStore(file).get(SERIAL, DAY, -1));
+	}
+
+	@Test
+	public void testInMemory() {
+		SmaCursorStore store = new SmaCursorStore(null);
+		store.put(SERIAL, DAY, 1400000000);
+		assertEquals(1400000000, store.get(SERIAL, DAY, -1));
+	}
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.hardware.devices;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.EnumSet;
+import java.util.List;
+
+import org.junit.Test;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.InverterDataType;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.LRIDefinition;
+
+/**
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public class SmaQueryTest {
+
+	@Test
+	public void testMergesNearbyRanges() {
+		// 0x4640..0x4642 and 0x4648..0x4652 are 6 LRIs apart
+		List<SmaQuery> queries = SmaQuery.plan(EnumSet.of(
+				InverterDataType.SpotACVoltage, InverterDataType.SpotACPower),
+				null);
+
+		assertEquals(1, queries.size());
+		SmaQuery query = queries.get(0);
+		assertEquals(0x51000200, query.getCommand());
+		assertEquals(0x00464000, query.getFirst());
+		assertEquals(0x004652FF, query.getLast());
+		assertEquals(EnumSet.of(InverterDataType.SpotACPower,
+				InverterDataType.SpotACVoltage), query.getTypes());
+	}
+
+	@Test
+	public void testKeepsDistantRangesApart() {
+		List<SmaQuery> queries = SmaQuery.plan(EnumSet.of(
+				InverterDataType.SpotGridFrequency,
+				InverterDataType.SpotACTotalPower), null);
+
+		// ordered by range
+		assertEquals(2, queries.size());
+		assertEquals(0x00263F00, queries.get(0).getFirst());
+		assertEquals(EnumSet.of(InverterDataType.SpotACTotalPower), queries
+				.get(0).getTypes());
+		assertEquals(0x00465700, queries.get(1).getFirst());
+		assertEquals(EnumSet.of(InverterDataType.SpotGridFrequency), queries
+				.get(1).getTypes());
+	}
+
+	@Test
+	public void testKeepsCommandsApart() {
+		List<SmaQuery> queries = SmaQuery.plan(EnumSet.of(
+				InverterDataType.SpotACTotalPower,
+				InverterDataType.DeviceStatus, InverterDataType.TypeLabel),
+				null);
+
+		assertEquals(3, queries.size());
+		assertEquals(0x51000200, queries.get(0).getCommand());
+		assertEquals(0x51800200, queries.get(1).getCommand());
+		assertEquals(0x58000200, queries.get(2).getCommand());
+	}
+
+	@Test
+	public void testNarrowsToLRIs() {
+		LRIDefinition lri = null;
+		for (LRIDefinition candidate : LRIDefinition.values()) {
+			if (candidate.getData() == InverterDataType.SpotACVoltage) {
+				lri = candidate;
+				break;
+			}
+		}
+
+		List<SmaQuery> queries = SmaQuery.plan(
+				EnumSet.of(InverterDataType.SpotACVoltage), EnumSet.of(lri));
+
+		assertEquals(1, queries.size());
+		assertEquals(lri.getValue() & 0x00FFFF00, queries.get(0).getFirst());
+		assertEquals(lri.getValue() & 0x00FFFF00 | 0xFF, queries.get(0)
+				.getLast());
+	}
+
+	@Test
+	public void testIgnoresLRIsOfOtherTypes() {
+		LRIDefinition lri = null;
+		for (LRIDefinition candidate : LRIDefinition.values()) {
+			if (candidate.getData() == InverterDataType.SpotGridFrequency) {
+				lri = candidate;
+				break;
+			}
+		}
+
+		List<SmaQuery> queries = SmaQuery.plan(
+				EnumSet.of(InverterDataType.SpotACVoltage), EnumSet.of(lri));
+
+		assertEquals(1, queries.size());
+		assertEquals(InverterDataType.SpotACVoltage.getFirst(), queries.get(0)
+				.getFirst());
+		assertEquals(InverterDataType.SpotACVoltage.getLast(), queries.get(0)
+				.getLast());
+	}
+
+	@Test
+	public void testSkipsNone() {
+		assertTrue(SmaQuery.plan(EnumSet.of(InverterDataType.None), null)
+				.isEmpty());
+	}
+}
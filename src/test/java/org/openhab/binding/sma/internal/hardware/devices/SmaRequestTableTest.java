@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.hardware.devices;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.InverterDataType;
+
+/**
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public class SmaRequestTableTest {
+
+	private static final SmaSerial INVERTER1 = new SmaSerial((short) 0x83,
+			2100000000);
+	private static final SmaSerial INVERTER2 = new SmaSerial((short) 0x83,
+			2100000001);
+
+	private final SmaRequestTable requests = new SmaRequestTable();
+
+	private final SmaQuery query = SmaQuery
+			.of(InverterDataType.SpotACTotalPower);
+
+	private final List<SmaSerial> both = Arrays.asList(INVERTER1, INVERTER2);
+
+	@Test
+	public void testMatchesEveryInverterOnce() {
+		requests.add((short) 1, query, both);
+
+		SmaRequestTable.Request request = requests.match((short) 1, INVERTER1);
+		assertSame(query, request.getQuery());
+		assertEquals(Collections.singleton(INVERTER2), request.getOutstanding());
+
+		// a duplicate response of the same inverter is stale
+		assertNull(requests.match((short) 1, INVERTER1));
+		assertEquals(1, requests.size());
+
+		assertSame(request, requests.match((short) 1, INVERTER2));
+		assertTrue(requests.isEmpty());
+
+		// the request is done, any further response is stale
+		assertNull(requests.match((short) 1, INVERTER2));
+	}
+
+	@Test
+	public void testUnknownPacketIsStale() {
+		requests.add((short) 1, query, both);
+
+		assertNull(requests.match((short) 2, INVERTER1));
+		assertEquals(1, requests.size());
+	}
+
+	@Test
+	public void testUnexpectedInverterIsStale() {
+		requests.add((short) 1, query, Collections.singletonList(INVERTER1));
+
+		assertNull(requests.match((short) 1, INVERTER2));
+		assertEquals(1, requests.size());
+	}
+
+	@Test
+	public void testResentExpectsOutstandingOnly() {
+		requests.add((short) 1, query, both);
+		requests.match((short) 1, INVERTER1);
+
+		SmaRequestTable.Request request = requests.getRequests().get(0);
+		requests.resent(request, (short) 2);
+		assertEquals(1, requests.size());
+
+		// the late response to the first request is stale
+		assertNull(requests.match((short) 1, INVERTER2));
+		// the inverter which answered the first request isn't expected again
+		assertNull(requests.match((short) 2, INVERTER1));
+
+		SmaRequestTable.Request resent = requests.match((short) 2, INVERTER2);
+		assertSame(query, resent.getQuery());
+		assertEquals((short) 2, resent.getPacketID());
+		assertTrue(requests.isEmpty());
+	}
+
+	@Test
+	public void testClear() {
+		requests.add((short) 1, query, both);
+		requests.add((short) 2, query, both);
+		assertEquals(2, requests.size());
+
+		requests.clear();
+		assertTrue(requests.isEmpty());
+		assertNull(requests.match((short) 1, INVERTER1));
+	}
+}
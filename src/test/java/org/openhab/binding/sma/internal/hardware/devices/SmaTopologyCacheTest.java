@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.hardware.devices;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public class SmaTopologyCacheTest {
+
+	private static final String PLANT = "00:80:25:00:00:01";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static SmaTopologyCache.Topology topology() {
+		return new SmaTopologyCache.Topology(4, new SmaBluetoothAddress(PLANT),
+				new SmaBluetoothAddress("00:1A:7D:DA:71:01"), Arrays.asList(
+						new SmaTopologyCache.Inverter(new SmaBluetoothAddress(
+								PLANT), new SmaSerial((short) 131, 2100000000)),
+						new SmaTopologyCache.Inverter(new SmaBluetoothAddress(
+								"01:80:25:00:00:01"), new SmaSerial(
+								(short) 0x7E11, 2100000001))));
+	}
+
+	@Test
+	public void testReadAgain() throws IOException {
+		File file = new File(folder.getRoot(), SmaTopologyCache.FILE_NAME);
+		new SmaTopologyCache(file).put(PLANT, topology());
+		// the file is replaced at once
+		assertFalse(new File(file.getPath() + ".tmp").exists());
+
+		SmaTopologyCache.Topology topology = new SmaTopologyCache(file)
+				.get(PLANT);
+		assertEquals(4, topology.getNetID());
+		assertEquals(new SmaBluetoothAddress(PLANT), topology.getRootAddress());
+		assertEquals(new SmaBluetoothAddress("00:1A:7D:DA:71:01"),
+				topology.getLocalAddress());
+		assertEquals(2, topology.getInverters().size());
+		SmaTopologyCache.Inverter inverter = topology.getInverters().get(1);
+		assertEquals(new SmaBluetoothAddress("01:80:25:00:00:01"),
+				inverter.getAddress());
+		assertEquals(new SmaSerial((short) 0x7E11, 2100000001),
+				inverter.getSerial());
+	}
+
+	@Test
+	public void testOtherVersionIsIgnored() throws IOException {
+		File file = new File(folder.getRoot(), SmaTopologyCache.FILE_NAME);
+		new SmaTopologyCache(file).put(PLANT, topology());
+
+		FileWriter writer = new FileWriter(file, true);
+		writer.write("version=" + (SmaTopologyCache.VERSION + 1) + "\n");
+		writer.close();
+
+		assertNull(new SmaTopologyCache(file).get(PLANT));
+	}
+
+	@Test
+	public void testIncompleteTopologyIsIgnored() throws IOException {
+		File file = folder.newFile(SmaTopologyCache.FILE_NAME);
+		FileWriter writer = new FileWriter(file);
+		writer.write("version=" + SmaTopologyCache.VERSION + "\n");
+		writer.write("plant.netID=4\n");
+		writer.close();
+
+		assertNull(new SmaTopologyCache(file).get("plant"));
+	}
+
+	@Test
+	public void testInMemory() {
+		SmaTopologyCache cache = new SmaTopologyCache(null);
+		assertNull(cache.get(PLANT));
+		cache.put(PLANT, topology());
+		assertEquals(2, cache.get(PLANT).getInverters().size());
+	}
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.hardware.devices;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.InverterDataType;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.LRIDefinition;
+
+/**
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public class SmaValueStoreTest {
+
+	private final SmaValueStore store = new SmaValueStore();
+
+	@Test
+	public void testSetAndGet() {
+		assertFalse(store.isValid(LRIDefinition.GridMsHz));
+		assertEquals(0, store.getTimestamp(LRIDefinition.GridMsHz));
+
+		store.set(LRIDefinition.GridMsHz, 5001, 1400000000);
+		store.setText(LRIDefinition.NameplateLocation, "SN: 2100000000",
+				1400000001);
+
+		assertTrue(store.isValid(LRIDefinition.GridMsHz));
+		assertEquals(5001, store.get(LRIDefinition.GridMsHz));
+		assertEquals(1400000000, store.getTimestamp(LRIDefinition.GridMsHz));
+		assertEquals("SN: 2100000000",
+				store.getText(LRIDefinition.NameplateLocation));
+		assertNull(store.getText(LRIDefinition.GridMsHz));
+	}
+
+	@Test
+	public void testInvalidateClearsItsTypeOnly() {
+		for (LRIDefinition lri : LRIDefinition.values()) {
+			store.set(lri, 1, 1400000000);
+		}
+
+		store.invalidate(InverterDataType.SpotACPower);
+
+		for (LRIDefinition lri : LRIDefinition.values()) {
+			assertEquals(lri.toString(),
+					lri.getData() != InverterDataType.SpotACPower,
+					store.isValid(lri));
+		}
+		// the value itself is kept
+		assertEquals(1, store.get(LRIDefinition.GridMsWphsA));
+	}
+
+	@Test
+	public void testKeep() {
+		// there is no value to keep yet
+		store.keep(LRIDefinition.MeteringTotWhOut);
+		assertFalse(store.isValid(LRIDefinition.MeteringTotWhOut));
+
+		store.set(LRIDefinition.MeteringTotWhOut, 5000000, 1400000000);
+		store.invalidate(InverterDataType.EnergyProduction);
+		assertFalse(store.isValid(LRIDefinition.MeteringTotWhOut));
+
+		store.keep(LRIDefinition.MeteringTotWhOut);
+		assertTrue(store.isValid(LRIDefinition.MeteringTotWhOut));
+		assertEquals(5000000, store.get(LRIDefinition.MeteringTotWhOut));
+	}
+}
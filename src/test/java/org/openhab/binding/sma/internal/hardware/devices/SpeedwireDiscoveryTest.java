@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.hardware.devices;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openhab.binding.sma.internal.layers.IP;
+
+/**
+ * Identifies an inverter on the loopback interface, which answers the
+ * identification request with its serial.
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public class SpeedwireDiscoveryTest {
+
+	// offset of the SUSyID and serial of the sender in a datagram
+	private static final int SUSYID = 28;
+	private static final int SERIAL = 30;
+
+	// a serial which is negative as int
+	private static final long SERIAL_ABOVE_2_31 = 3000000001L;
+
+	private InetAddress loopback;
+
+	private DatagramSocket inverter;
+
+	private Thread responder;
+
+	@Before
+	public void setUp() throws IOException {
+		loopback = InetAddress.getByName("127.0.0.1");
+		inverter = new DatagramSocket(new InetSocketAddress(loopback, IP.PORT));
+		inverter.setSoTimeout(2000);
+
+		// answers the identification by the request with its own serial
+		responder = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					DatagramPacket request = new DatagramPacket(
+							new byte[IP.MAXPACKETLENGTH], IP.MAXPACKETLENGTH);
+					inverter.receive(request);
+					ByteBuffer response = ByteBuffer.wrap(request.getData(),
+							0, request.getLength()).order(
+							ByteOrder.LITTLE_ENDIAN);
+					response.putShort(SUSYID, (short) 0x0083);
+					response.putInt(SERIAL, (int) SERIAL_ABOVE_2_31);
+					inverter.send(new DatagramPacket(response.array(),
+							request.getLength(), request.getSocketAddress()));
+				} catch (IOException e) {
+					// the identification times out
+				}
+			}
+		});
+		responder.start();
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		responder.join();
+		inverter.close();
+	}
+
+	@Test
+	public void testSerialAbove2To31() {
+		SpeedwireDiscovery discovery = new SpeedwireDiscovery();
+		discovery.answered(loopback);
+
+		assertEquals(loopback, discovery.getDirectory().get(
+				new SmaSerial((short) 0x0083, SERIAL_ABOVE_2_31)));
+		// as configured by '<id>.serial=3000000001'
+		assertEquals(loopback, discovery.lookup(Long.parseLong("3000000001")));
+
+		discovery.invalidate(SERIAL_ABOVE_2_31);
+		assertNull(discovery.lookup(SERIAL_ABOVE_2_31));
+	}
+}
@@ -0,0 +1,284 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.layers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.microedition.io.StreamConnection;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openhab.binding.sma.internal.hardware.devices.SmaBluetoothAddress;
+
+/**
+ * Sends frames and receives them back, as if the inverter echoed them.
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public class BluetoothTest {
+
+	private static final int L2 = Bluetooth.HEADERLENGTH;
+
+	// bytes which have to be escaped within a L2 packet
+	private static final byte[] ESCAPED = { 0x7E, 0x7D, 0x11, 0x12, 0x13 };
+
+	private final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+
+	private Bluetooth layer;
+
+	/**
+	 * hands out at most 3 bytes per read, like a busy radio link
+	 */
+	private static class ShortReadInputStream extends ByteArrayInputStream {
+
+		public ShortReadInputStream(byte[] buf) {
+			super(buf);
+		}
+
+		@Override
+		public synchronized int read(byte[] b, int off, int len) {
+			return super.read(b, off, Math.min(len, 3));
+		}
+	}
+
+	/**
+	 * the connection of the layer, its streams are set by the test
+	 */
+	private static class TestConnection implements StreamConnection {
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public InputStream openInputStream() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public DataInputStream openDataInputStream() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public OutputStream openOutputStream() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public DataOutputStream openDataOutputStream() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	@Before
+	public void setUp() {
+		layer = new Bluetooth("00:80:25:7E:7D:11");
+		layer.localAddress = new SmaBluetoothAddress("00:1A:7D:DA:71:13");
+		layer.setDefaultTimeout(100);
+		layer.connection = new TestConnection();
+		layer.out = new DataOutputStream(sent);
+	}
+
+	/**
+	 * sends a request of values which all have to be escaped
+	 *
+	 * @return the packet id of the request
+	 */
+	private short sendEscapedRequest() throws IOException {
+		short id = layer.beginRequest((byte) 0x09, (byte) 0xA0, (short) 0,
+				(short) 0x7E7D, 0x13121111);
+		layer.write(0x7E7D1311);
+		layer.write((short) 0x127E);
+		layer.write(ESCAPED, ESCAPED.length);
+		layer.write((byte) 0x7D);
+		layer.sendRequest();
+		return id;
+	}
+
+	/**
+	 * @return the frame sent by the layer, as if the inverter sent it
+	 */
+	private byte[] echo() {
+		byte[] frame = sent.toByteArray();
+		sent.reset();
+		for (int i = 0; i < 6; i++) {
+			frame[4 + i] = layer.destAddress.get(i);
+			frame[10 + i] = layer.localAddress.get(i);
+		}
+		return frame;
+	}
+
+	/**
+	 * @return the frame with its own header and the given part of the
+	 *         payload of the given frame
+	 */
+	private static byte[] fragment(byte[] frame, int start, int end,
+			int command) {
+		int length = L2 + end - start;
+		byte[] fragment = new byte[length];
+		System.arraycopy(frame, 0, fragment, 0, L2);
+		System.arraycopy(frame, start, fragment, L2, end - start);
+		fragment[1] = (byte) (length & 0xFF);
+		fragment[2] = (byte) (length >>> 8);
+		fragment[3] = (byte) (fragment[0] ^ fragment[1] ^ fragment[2]);
+		fragment[16] = (byte) command;
+		fragment[17] = 0;
+		return fragment;
+	}
+
+	private void receiveFrom(byte[]... frames) throws IOException {
+		ByteArrayOutputStream received = new ByteArrayOutputStream();
+		for (byte[] frame : frames) {
+			received.write(frame);
+		}
+		layer.in = new DataInputStream(new ShortReadInputStream(
+				received.toByteArray()));
+	}
+
+	private static void assertEscapedRequest(ByteBuffer packet) {
+		assertEquals((short) 0x7E7D, packet.getShort(L2 + 7));
+		assertEquals(0x13121111, packet.getInt(L2 + 9));
+		assertEquals(0x7E7D1311, packet.getInt(L2 + 29));
+		assertEquals((short) 0x127E, packet.getShort(L2 + 33));
+		for (int i = 0; i < ESCAPED.length; i++) {
+			assertEquals(ESCAPED[i], packet.get(L2 + 35 + i));
+		}
+		assertEquals(0x7D, packet.get(L2 + 35 + ESCAPED.length));
+		// the packet ends with its checksum and the trailing 0x7E
+		assertEquals(L2 + 36 + ESCAPED.length + 3, packet.limit());
+	}
+
+	@Test
+	public void testEscapedFrame() throws IOException {
+		sendEscapedRequest();
+		byte[] frame = sent.toByteArray();
+
+		assertEquals(frame.length,
+				(frame[1] & 0xFF) | ((frame[2] & 0xFF) << 8));
+		assertEquals(frame[0] ^ frame[1] ^ frame[2], frame[3]);
+		assertEquals(0x7E, frame[L2]);
+		assertEquals(0x7E, frame[frame.length - 1]);
+		for (int i = L2 + 1; i < frame.length - 1; i++) {
+			for (byte escaped : new byte[] { 0x7E, 0x11, 0x12, 0x13 }) {
+				assertTrue("unescaped byte at " + i, frame[i] != escaped);
+			}
+		}
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		short id = sendEscapedRequest();
+		receiveFrom(echo());
+
+		ByteBuffer packet = layer.receive(0x01);
+		assertEscapedRequest(packet);
+		assertEquals(id, new PacketView().wrap(packet).getPacketID());
+	}
+
+	@Test
+	public void testFragments() throws IOException {
+		sendEscapedRequest();
+		byte[] frame = echo();
+
+		// split the packet right after an escape byte
+		int split = L2 + 6;
+		while (frame[split - 1] != 0x7D)
+			split++;
+
+		receiveFrom(fragment(frame, L2, split, 0x08),
+				fragment(frame, split, frame.length, 0x01));
+
+		assertEscapedRequest(layer.receive(0x01));
+	}
+
+	@Test
+	public void testWrongSenderIsSkipped() throws IOException {
+		sendEscapedRequest();
+		byte[] other = echo();
+		other[4] ^= 0x01;
+
+		sendEscapedRequest();
+		receiveFrom(other, echo());
+
+		assertEscapedRequest(layer.receive(0x01));
+	}
+
+	@Test
+	public void testTimeouts() {
+		// the network setup steps take longer
+		assertEquals(10000, layer.getTimeout(0x02));
+		assertEquals(100, layer.getTimeout(0x01));
+
+		layer.setTimeout(0x01, 500);
+		assertEquals(500, layer.getTimeout(0x01));
+	}
+
+	@Test
+	public void testTimeout() throws IOException {
+		receiveFrom();
+
+		long start = System.currentTimeMillis();
+		try {
+			layer.receive(0x01);
+			fail("received a frame which was never sent");
+		} catch (SocketTimeoutException e) {
+			assertEquals(100, System.currentTimeMillis() - start, 90);
+		}
+		// nothing was read, the stream is still in a known state
+		assertTrue(layer.isOpen());
+	}
+
+	@Test
+	public void testTimeoutWithinFrame() throws IOException {
+		sendEscapedRequest();
+		byte[] frame = echo();
+		receiveFrom(Arrays.copyOf(frame, frame.length - 4));
+
+		try {
+			layer.receive(0x01);
+			fail("received an incomplete frame");
+		} catch (SocketTimeoutException e) {
+			// the next frame can't be found in the stream
+			assertFalse(layer.isOpen());
+		}
+	}
+
+	@Test
+	public void testInvalidChecksum() throws IOException {
+		sendEscapedRequest();
+		byte[] frame = echo();
+		// the longwords of the L2 packet are not escaped
+		frame[L2 + 5] ^= 0x01;
+		receiveFrom(frame);
+
+		try {
+			layer.receive(0x01);
+			fail("packet with an invalid checksum received");
+		} catch (SocketTimeoutException e) {
+			// the packet is discarded, the frame was read completely
+			assertTrue(layer.isOpen());
+		}
+	}
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.layers;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public class Fcs16Test {
+
+	/**
+	 * the checksum of a block byte by byte
+	 */
+	private static int bytewise(int crc, byte[] bytes, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			crc = Fcs16.update(crc, bytes[i]);
+		}
+		return crc;
+	}
+
+	@Test
+	public void testCheckValue() {
+		// check value of the FCS-16 of PPP (RFC 1662)
+		byte[] bytes = "123456789".getBytes();
+		assertEquals((short) 0x906E, Fcs16.checksum(bytes, 0, bytes.length));
+	}
+
+	@Test
+	public void testSliceBy8MatchesBytewise() {
+		Random random = new Random(1);
+		byte[] bytes = new byte[64];
+		random.nextBytes(bytes);
+
+		// all offsets and lengths around the blocks of 8 bytes
+		for (int offset = 0; offset < 9; offset++) {
+			for (int length = 0; offset + length <= bytes.length; length++) {
+				int crc = random.nextInt(0x10000);
+				assertEquals("offset " + offset + ", length " + length,
+						bytewise(crc, bytes, offset, length),
+						Fcs16.update(crc, bytes, offset, length));
+			}
+		}
+	}
+
+	@Test
+	public void testIncrementalUpdate() {
+		byte[] bytes = new byte[37];
+		new Random(2).nextBytes(bytes);
+
+		Fcs16 fcs = new Fcs16();
+		fcs.update(bytes, 0, 5);
+		fcs.update(bytes[5]);
+		fcs.update(bytes, 6, bytes.length - 6);
+		assertEquals(Fcs16.checksum(bytes, 0, bytes.length), fcs.getValue());
+
+		fcs.reset();
+		fcs.update(bytes, 0, bytes.length);
+		assertEquals(Fcs16.checksum(bytes, 0, bytes.length), fcs.getValue());
+	}
+}
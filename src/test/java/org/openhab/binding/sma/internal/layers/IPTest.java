@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.layers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Sends datagrams to an inverter on the loopback interface, which sends
+ * them back.
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public class IPTest {
+
+	private static final int L2 = PacketView.L2OFFSET;
+
+	// offset of the packet id in a datagram
+	private static final int PACKETID = IP.HEADERLENGTH + 26;
+
+	private DatagramSocket inverter;
+
+	private IP layer;
+
+	@Before
+	public void setUp() throws IOException {
+		InetAddress loopback = InetAddress.getByName("127.0.0.1");
+		inverter = new DatagramSocket(
+				new InetSocketAddress(loopback, IP.PORT));
+		inverter.setSoTimeout(2000);
+
+		layer = new IP(loopback);
+		layer.open();
+	}
+
+	@After
+	public void tearDown() {
+		layer.close();
+		inverter.close();
+	}
+
+	/**
+	 * @return the request as received by the inverter
+	 */
+	private DatagramPacket sendRequest(short pcktID) throws IOException {
+		layer.pcktID = pcktID;
+		layer.writePacketHeader(0x01);
+		layer.writePacket((byte) 0x09, (byte) 0xA0, (short) 0,
+				(short) 0x1234, 0x71234567);
+		layer.write(0x51000200);
+		layer.writePacketTrailer();
+		layer.send();
+
+		DatagramPacket request = new DatagramPacket(new byte[1024], 1024);
+		inverter.receive(request);
+		return request;
+	}
+
+	private void reply(DatagramPacket request, byte[] data) throws IOException {
+		inverter.send(new DatagramPacket(data, data.length, request
+				.getSocketAddress()));
+	}
+
+	private static byte[] dataOf(DatagramPacket packet) {
+		return Arrays.copyOf(packet.getData(), packet.getLength());
+	}
+
+	@Test
+	public void testRequest() throws IOException {
+		ByteBuffer request = ByteBuffer.wrap(dataOf(sendRequest((short) 5)))
+				.order(ByteOrder.LITTLE_ENDIAN);
+
+		assertEquals(IP.L1SIGNATURE, request.getInt(0));
+		assertEquals(IP.L2SIGNATURE, request.getInt(IP.HEADERLENGTH));
+		// big endian length of the L2 packet without its header
+		assertEquals(request.limit() - IP.L2HEADERLENGTH,
+				((request.get(12) & 0xFF) << 8) | (request.get(13) & 0xFF));
+		assertEquals((short) (5 | 0x8000), request.getShort(PACKETID));
+	}
+
+	@Test
+	public void testBluetoothLayout() throws IOException {
+		DatagramPacket request = sendRequest((short) 5);
+		byte[] datagram = dataOf(request);
+		reply(request, datagram);
+
+		ByteBuffer packet = layer.receive(1000L);
+		assertEquals(0x7E, packet.get(L2));
+		assertEquals(IP.L2SIGNATURE, packet.getInt(L2 + 1));
+		assertEquals((short) 0x1234, packet.getShort(L2 + 7));
+		assertEquals(0x71234567, packet.getInt(L2 + 9));
+		assertEquals(0x51000200, packet.getInt(L2 + 29));
+		assertEquals(5, new PacketView().wrap(packet).getPacketID());
+		// as long as a bluetooth packet with its trailer
+		assertEquals(L2 + 33 + PacketView.TRAILERLENGTH, packet.limit());
+		assertEquals(datagram.length + IP.L2SHIFT - 1, packet.limit());
+	}
+
+	@Test
+	public void testDatagramWithoutL2PacketIsSkipped() throws IOException {
+		DatagramPacket request = sendRequest((short) 5);
+		byte[] datagram = dataOf(request);
+		byte[] other = datagram.clone();
+		other[IP.HEADERLENGTH] ^= 0x01;
+		reply(request, other);
+		reply(request, new byte[] { 'S', 'M', 'A', 0 });
+		reply(request, datagram);
+
+		ByteBuffer packet = layer.receive(1000L);
+		assertEquals(IP.L2SIGNATURE, packet.getInt(L2 + 1));
+	}
+
+	@Test
+	public void testOtherPacketIDIsDiscarded() throws IOException {
+		DatagramPacket request = sendRequest((short) 6);
+		byte[] datagram = dataOf(request);
+		byte[] earlier = datagram.clone();
+		earlier[PACKETID] = 5;
+		reply(request, earlier);
+		reply(request, datagram);
+
+		ByteBuffer packet = layer.receive((short) 6, 1000L);
+		assertEquals(6, new PacketView().wrap(packet).getPacketID());
+	}
+
+	@Test
+	public void testTimeout() throws IOException {
+		sendRequest((short) 5);
+		long start = System.currentTimeMillis();
+		try {
+			layer.receive(100L);
+			fail("received a packet which was never sent");
+		} catch (SocketTimeoutException e) {
+			assertEquals(100, System.currentTimeMillis() - start, 90);
+		}
+	}
+}
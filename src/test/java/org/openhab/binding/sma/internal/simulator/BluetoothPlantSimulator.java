@@ -0,0 +1,895 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.simulator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.microedition.io.StreamConnection;
+
+import org.openhab.binding.sma.internal.SmaBinding;
+import org.openhab.binding.sma.internal.hardware.devices.BluetoothSolarInverterPlant;
+import org.openhab.binding.sma.internal.hardware.devices.LRIDecoder;
+import org.openhab.binding.sma.internal.hardware.devices.SmaBluetoothAddress;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.LRIDefinition;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.SmaUserGroup;
+import org.openhab.binding.sma.internal.layers.Bluetooth;
+import org.openhab.binding.sma.internal.layers.Fcs16;
+import org.openhab.binding.sma.internal.layers.FrameEncoder;
+import org.openhab.binding.sma.internal.layers.StreamConnector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Simulates a bluetooth plant of SMA inverters within the JVM.
+ *
+ * The simulator is a {@link StreamConnector}: every connection to the root
+ * address of the plant is a {@link LoopbackConnection}, which is served by
+ * a thread of its own. It answers the net ID query, the connection to the
+ * root device with the topology of the plant, the identification
+ * broadcast, logon, data, archive and event log requests of any number of
+ * virtual inverters. Archive and event log responses are split into several
+ * packets, the entries of an event log are sent newest first.
+ *
+ * Responses are delayed by the latency plus a random jitter, but like on a
+ * serial link they arrive in the order they were sent. Responses to L2
+ * requests are lost with the given probability. All random decisions
+ * are derived from the seed, so a run can be repeated.
+ *
+ * A plant device polling the simulator is created by
+ * {@link #createDevice(String)}.
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public class BluetoothPlantSimulator implements StreamConnector {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(BluetoothPlantSimulator.class);
+
+	public static final String DEFAULT_ROOT_ADDRESS = "00:80:25:00:00:01";
+
+	// address of the (simulated) local bluetooth adapter
+	public static final String LOCAL_ADDRESS = "00:1A:7D:DA:71:01";
+
+	private static final int HEADERLENGTH = Bluetooth.HEADERLENGTH;
+
+	private static final int L2SIGNATURE = 0x656003FF;
+
+	// commands of the L2 requests, all others are data requests
+	private static final int LOGON = 0xFFFD040C;
+	private static final int LOGOFF = 0xFFFD010E;
+	private static final int IDENTIFY = 0x00000200;
+	private static final int ARCHIVE_DAY = 0x70000200;
+	private static final int ARCHIVE_MONTH = 0x70200200;
+	private static final int USER_LOG = 0x70100200;
+	private static final int INSTALLER_LOG = 0x70120200;
+
+	// time (in s) between two entries of the simulated event logs
+	private static final int EVENT_INTERVAL = 6 * 3600;
+
+	// code of the simulated events
+	private static final int EVENT_CODE = 10001;
+
+	// max size of the records of an archive or event log response packet
+	private static final int LOG_PAYLOAD = 480;
+
+	/**
+	 * error code of a data request while not logged on
+	 */
+	public static final short NOT_LOGGED_ON = 0x0017;
+
+	/**
+	 * error code of a query of LRIs the inverter doesn't have
+	 */
+	public static final short LRI_NOT_AVAILABLE = 0x0015;
+
+	/**
+	 * error code of a logon with a wrong password
+	 */
+	public static final short INVALID_PASSWORD = 0x0100;
+
+	// all LRIs ordered by their code, as sent by an inverter
+	private static final List<LRIDefinition> LRIS;
+
+	static {
+		List<LRIDefinition> lris = new ArrayList<LRIDefinition>(
+				Arrays.asList(LRIDefinition.values()));
+		Collections.sort(lris, new Comparator<LRIDefinition>() {
+			@Override
+			public int compare(LRIDefinition l1, LRIDefinition l2) {
+				return l1.getValue() < l2.getValue() ? -1 : l1.getValue() == l2
+						.getValue() ? 0 : 1;
+			}
+		});
+		LRIS = Collections.unmodifiableList(lris);
+	}
+
+	private final SmaBluetoothAddress rootAddress;
+	private final SmaBluetoothAddress localAddress = new SmaBluetoothAddress(
+			LOCAL_ADDRESS);
+	private final List<SimulatedInverter> inverters;
+	private final int netID;
+	private final Random random;
+
+	private long latency = 50;
+	private long jitter = 0;
+	private double loss = 0;
+	private int maxFrameLength = 0;
+	private String password = "0000";
+
+	// codes of the LRIs the inverters don't have
+	private final Set<Integer> unavailable = Collections
+			.synchronizedSet(new HashSet<Integer>());
+
+	private final AtomicLong discoveryCount = new AtomicLong();
+	private final AtomicLong requestCount = new AtomicLong();
+	private final AtomicLong logonCount = new AtomicLong();
+	private final AtomicLong responseCount = new AtomicLong();
+	private final AtomicLong lostCount = new AtomicLong();
+	private final AtomicLong invalidCount = new AtomicLong();
+	private final AtomicLong bytesReceived = new AtomicLong();
+	private final AtomicLong bytesSent = new AtomicLong();
+
+	private final List<LoopbackConnection> connections = Collections
+			.synchronizedList(new ArrayList<LoopbackConnection>());
+
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * @param count
+	 *            number of inverters
+	 * @param seed
+	 *            seed of all random decisions
+	 */
+	public BluetoothPlantSimulator(int count, long seed) {
+		this(DEFAULT_ROOT_ADDRESS, count, seed, false);
+	}
+
+	/**
+	 * @param rootAddress
+	 *            bluetooth address of the root inverter, the addresses of the
+	 *            other inverters follow it
+	 * @param count
+	 *            number of inverters
+	 * @param seed
+	 *            seed of all random decisions
+	 * @param escaped
+	 *            <code>true</code> to choose serials and values which have
+	 *            to be escaped in a packet
+	 */
+	public BluetoothPlantSimulator(String rootAddress, int count, long seed,
+			boolean escaped) {
+		this.rootAddress = new SmaBluetoothAddress(rootAddress);
+		this.random = new Random(seed);
+		this.netID = count == 1 ? 1 : 4;
+
+		List<SimulatedInverter> list = new ArrayList<SimulatedInverter>(count);
+		for (int i = 0; i < count; i++) {
+			byte[] address = this.rootAddress.getAddress().clone();
+			address[0] += i;
+
+			short susyID = escaped ? (short) 0x7E11 : (short) 0x0083;
+			int serial = escaped ? 0x7D7E1300 | (i & 0xFF) : 2100000000 + i;
+			int nominalPower = 3000 + 1000 * random.nextInt(3);
+
+			list.add(new SimulatedInverter(new SmaBluetoothAddress(address),
+					susyID, serial, nominalPower, escaped, random.nextLong()));
+		}
+		this.inverters = Collections.unmodifiableList(list);
+	}
+
+	public SmaBluetoothAddress getRootAddress() {
+		return rootAddress;
+	}
+
+	public List<SimulatedInverter> getInverters() {
+		return inverters;
+	}
+
+	/**
+	 * sets the time (in ms) until a response is sent
+	 */
+	public void setLatency(long latency) {
+		this.latency = latency;
+	}
+
+	/**
+	 * sets the max random time (in ms) added to the latency
+	 */
+	public void setJitter(long jitter) {
+		this.jitter = jitter;
+	}
+
+	/**
+	 * sets the probability a response to a L2 request is lost
+	 */
+	public void setLoss(double loss) {
+		this.loss = loss;
+	}
+
+	/**
+	 * sets the max length of a frame, longer L2 packets are split into
+	 * fragments. 0 sends every packet in one frame.
+	 */
+	public void setMaxFrameLength(int maxFrameLength) {
+		this.maxFrameLength = maxFrameLength;
+	}
+
+	public void setPassword(String password) {
+		this.password = password;
+	}
+
+	/**
+	 * makes the inverters reject every query of the given LRI as not
+	 * available, like the battery values on an inverter without battery
+	 */
+	public void setUnavailable(LRIDefinition lri) {
+		unavailable.add(lri.getValue());
+	}
+
+	/**
+	 * @return number of logon requests received
+	 */
+	public long getLogonCount() {
+		return logonCount.get();
+	}
+
+	/**
+	 * @return number of net ID queries, which start a discovery
+	 */
+	public long getDiscoveryCount() {
+		return discoveryCount.get();
+	}
+
+	/**
+	 * @return number of L2 requests received
+	 */
+	public long getRequestCount() {
+		return requestCount.get();
+	}
+
+	/**
+	 * @return number of L2 responses sent
+	 */
+	public long getResponseCount() {
+		return responseCount.get();
+	}
+
+	/**
+	 * @return number of L2 responses lost on purpose
+	 */
+	public long getLostCount() {
+		return lostCount.get();
+	}
+
+	/**
+	 * @return number of requests with an invalid checksum
+	 */
+	public long getInvalidCount() {
+		return invalidCount.get();
+	}
+
+	/**
+	 * @return number of bytes of all frames received
+	 */
+	public long getBytesReceived() {
+		return bytesReceived.get();
+	}
+
+	/**
+	 * @return number of bytes of all frames delivered
+	 */
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	/**
+	 * @return a plant device connected to this simulator
+	 */
+	public SmaDevice createDevice(String deviceId) {
+		SmaBinding.Device device = new SmaBinding.Device(deviceId);
+		device.setPlant(rootAddress.toString());
+		device.setPassword(password);
+
+		return new BluetoothSolarInverterPlant(device) {
+			@Override
+			protected Bluetooth createLayer() {
+				Bluetooth layer = super.createLayer();
+				layer.setConnector(BluetoothPlantSimulator.this);
+				return layer;
+			}
+		};
+	}
+
+	@Override
+	public synchronized StreamConnection open(SmaBluetoothAddress address)
+			throws IOException {
+		if (!rootAddress.equals(address))
+			throw new IOException("no SMA plant at " + address);
+
+		if (scheduler == null) {
+			scheduler = Executors
+					.newSingleThreadScheduledExecutor(new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "SMA simulator "
+									+ rootAddress);
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+
+		LoopbackConnection connection = new LoopbackConnection();
+		connections.add(connection);
+
+		Thread thread = new Thread(new Session(connection),
+				"SMA simulator session " + rootAddress);
+		thread.setDaemon(true);
+		thread.start();
+		return connection;
+	}
+
+	/**
+	 * closes all connections and stops the simulator
+	 */
+	public synchronized void shutdown() {
+		synchronized (connections) {
+			for (LoopbackConnection connection : connections) {
+				connection.close();
+			}
+			connections.clear();
+		}
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	private long nextDelay() {
+		synchronized (random) {
+			return latency
+					+ (jitter > 0 ? random.nextInt((int) jitter + 1) : 0);
+		}
+	}
+
+	private boolean isLost() {
+		synchronized (random) {
+			return loss > 0 && random.nextDouble() < loss;
+		}
+	}
+
+	/**
+	 * serves one connection
+	 */
+	private class Session implements Runnable {
+		private final LoopbackConnection connection;
+		private final OutputStream out;
+
+		// the inverters logged on within this connection
+		private final Set<SimulatedInverter> loggedOn = new HashSet<SimulatedInverter>();
+
+		private final FrameEncoder encoder = new FrameEncoder(4096);
+
+		// the frames not yet delivered, in the order they were sent
+		private final Queue<byte[]> pending = new LinkedList<byte[]>();
+
+		// time (in ms) the last frame is delivered
+		private long lastDelivery = 0;
+
+		// number of frames sent and delivered
+		private int sent = 0;
+		private int delivered = 0;
+
+		Session(LoopbackConnection connection) {
+			this.connection = connection;
+			this.out = connection.getPeerOutputStream();
+		}
+
+		@Override
+		public void run() {
+			DataInputStream in = new DataInputStream(
+					connection.getPeerInputStream());
+			byte[] header = new byte[HEADERLENGTH];
+
+			try {
+				while (true) {
+					in.readFully(header);
+					int length = (header[1] & 0xFF)
+							| ((header[2] & 0xFF) << 8);
+					if (length < HEADERLENGTH)
+						throw new IOException("invalid frame length " + length);
+
+					byte[] body = new byte[length - HEADERLENGTH];
+					in.readFully(body);
+					bytesReceived.addAndGet(length);
+
+					int control = (header[16] & 0xFF)
+							| ((header[17] & 0xFF) << 8);
+					handle(control, body);
+				}
+			} catch (EOFException e) {
+				logger.debug("connection to {} closed", rootAddress);
+			} catch (IOException e) {
+				logger.debug("connection to {} failed: {}", rootAddress,
+						e.getMessage());
+			} finally {
+				connection.close();
+				connections.remove(connection);
+			}
+		}
+
+		private void handle(int control, byte[] body) {
+			switch (control) {
+			case 0x0201: {
+				// net ID
+				discoveryCount.incrementAndGet();
+				ByteBuffer payload = payload(13);
+				payload.putInt(0x00700400);
+				payload.put((byte) netID);
+				payload.putInt(0);
+				payload.putInt(1);
+				send(frame(0x02, rootAddress, localAddress, payload), false);
+				break;
+			}
+			case 0x02: {
+				// connection to the root device and topology
+				ByteBuffer payload = payload(13);
+				payload.put(rootAddress.getAddress());
+				payload.put((byte) 1);
+				payload.put(localAddress.getAddress());
+				send(frame(0x0A, rootAddress, localAddress, payload), false);
+
+				ByteBuffer topology = payload(8 * (inverters.size() + 1));
+				for (SimulatedInverter inverter : inverters) {
+					topology.put(inverter.getAddress().getAddress());
+					topology.put((byte) 0x01);
+					topology.put((byte) 0x01);
+				}
+				topology.put(localAddress.getAddress());
+				topology.put((byte) 0x02);
+				topology.put((byte) 0x01);
+				send(frame(0x05, rootAddress, localAddress, topology), false);
+				break;
+			}
+			case 0x03:
+				send(frame(0x04, rootAddress, localAddress, payload(0)), false);
+				break;
+			case 0x01:
+				handleRequest(body);
+				break;
+			default:
+				logger.debug("ignoring frame with command {}", control);
+			}
+		}
+
+		private void handleRequest(byte[] body) {
+			// unescape the L2 packet, it starts with 0x7E
+			byte[] l2 = new byte[body.length];
+			int length = 0;
+			boolean escNext = false;
+			for (byte b : body) {
+				if (escNext) {
+					l2[length++] = (byte) (b ^ 0x20);
+					escNext = false;
+				} else if (b == 0x7D) {
+					escNext = true;
+				} else {
+					l2[length++] = b;
+				}
+			}
+
+			requestCount.incrementAndGet();
+			ByteBuffer request = ByteBuffer.wrap(l2, 0, length).order(
+					ByteOrder.LITTLE_ENDIAN);
+			if (length < 32
+					|| Fcs16.checksum(l2, 1, length - 4) != request
+							.getShort(length - 3)) {
+				invalidCount.incrementAndGet();
+				logger.debug("discarding request with invalid checksum");
+				return;
+			}
+
+			short dstSUSyID = request.getShort(7);
+			int dstSerial = request.getInt(9);
+			int command = request.getInt(29);
+
+			for (SimulatedInverter inverter : inverters) {
+				if ((dstSUSyID != (short) 0xFFFF && dstSUSyID != inverter
+						.getSUSyID())
+						|| (dstSerial != 0xFFFFFFFF && dstSerial != inverter
+								.getSerial())) {
+					continue;
+				}
+
+				switch (command) {
+				case LOGON: {
+					logonCount.incrementAndGet();
+					boolean valid = password.equals(decodePassword(request));
+					if (valid) {
+						loggedOn.add(inverter);
+					}
+					respond(inverter, request, valid ? 0 : INVALID_PASSWORD,
+							echo(request, length));
+					break;
+				}
+				case LOGOFF:
+					loggedOn.remove(inverter);
+					break;
+				case IDENTIFY: {
+					ByteBuffer payload = payload(48);
+					payload.put(echo(request, length).array(), 0, 12);
+					payload.position(26);
+					payload.putShort(inverter.getSUSyID());
+					payload.putInt(inverter.getSerial());
+					payload.position(48);
+					respond(inverter, request, 0, payload);
+					break;
+				}
+				default:
+					if (!loggedOn.contains(inverter)) {
+						respond(inverter, request, NOT_LOGGED_ON,
+								echo(request, length));
+					} else if (command == ARCHIVE_DAY) {
+						archive(inverter, request, 300, 12);
+					} else if (command == ARCHIVE_MONTH) {
+						archive(inverter, request, 86400, 24);
+					} else if (command == USER_LOG
+							|| command == INSTALLER_LOG) {
+						eventLog(inverter, request);
+					} else if (isUnavailable(request.getInt(33),
+							request.getInt(37))) {
+						respond(inverter, request, LRI_NOT_AVAILABLE,
+								echo(request, length));
+					} else {
+						respond(inverter, request, 0, records(inverter,
+								command, request.getInt(33),
+								request.getInt(37)));
+					}
+				}
+			}
+		}
+
+		/**
+		 * @return the payload of the request, starting with its command
+		 */
+		private ByteBuffer echo(ByteBuffer request, int length) {
+			ByteBuffer payload = payload(length - 3 - 29);
+			for (int i = 29; i < length - 3; i++) {
+				payload.put(request.get(i));
+			}
+			return payload;
+		}
+
+		private String decodePassword(ByteBuffer request) {
+			int userGroup = request.getInt(33);
+			int encChar = (userGroup == SmaUserGroup.User.getValue()) ? 0x88
+					: 0xBB;
+
+			StringBuilder pw = new StringBuilder();
+			for (int i = 49; i < 49 + 12; i++) {
+				int b = request.get(i) & 0xFF;
+				if (b == encChar)
+					break;
+				pw.append((char) ((b - encChar) & 0xFF));
+			}
+			return pw.toString();
+		}
+
+		/**
+		 * @return <code>true</code> if the range contains an LRI the
+		 *         inverters don't have
+		 */
+		private boolean isUnavailable(int first, int last) {
+			synchronized (unavailable) {
+				for (int code : unavailable) {
+					if (code >= first && code <= last)
+						return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * @return the records of all LRIs in the requested range
+		 */
+		private ByteBuffer records(SimulatedInverter inverter, int command,
+				int first, int last) {
+			ByteBuffer payload = payload(4096);
+			payload.putInt(command);
+			payload.putInt(first);
+			payload.putInt(last);
+
+			int time = (int) (System.currentTimeMillis() / 1000);
+			for (LRIDefinition lri : LRIS) {
+				int code = lri.getValue();
+				LRIDecoder.Entry entry = LRIDecoder.lookup(code);
+				if (code < first || code > last || entry == null)
+					continue;
+
+				int record = payload.position();
+				switch (entry.getWidth()) {
+				case DWORD:
+					payload.putInt((LRIDecoder.DT_SLONG << 24) | code);
+					payload.putInt(time);
+					payload.putInt((int) inverter.getValue(lri, time));
+					break;
+				case QWORD:
+					payload.putInt((LRIDecoder.DT_ULONG << 24) | code);
+					payload.putInt(time);
+					payload.putLong(inverter.getValue(lri, time));
+					break;
+				case STATUS: {
+					payload.putInt((LRIDecoder.DT_STATUS << 24) | code);
+					payload.putInt(time);
+					int[] values = inverter.getStatusValues(lri);
+					for (int i = 0; i < 8; i++) {
+						payload.putInt(i < values.length ? values[i]
+								| (i == 0 ? 0x01000000 : 0) : 0x00FFFFFE);
+					}
+					break;
+				}
+				case TEXT: {
+					payload.putInt((LRIDecoder.DT_STRING << 24) | code);
+					payload.putInt(time);
+					byte[] name = inverter.getName().getBytes();
+					payload.put(name, 0, Math.min(name.length, 31));
+					break;
+				}
+				case VERSION:
+					payload.putInt((LRIDecoder.DT_STATUS << 24) | code);
+					payload.putInt(time);
+					// 02.30.04.R
+					payload.put(record + 24, (byte) 4);
+					payload.put(record + 25, (byte) 4);
+					payload.put(record + 26, (byte) 0x30);
+					payload.put(record + 27, (byte) 0x02);
+					break;
+				}
+				payload.position(record + entry.getRecordSize());
+			}
+			return payload;
+		}
+
+		/**
+		 * responds the total yield of every interval in the requested range
+		 * up to now
+		 */
+		private void archive(SimulatedInverter inverter, ByteBuffer request,
+				int interval, int recordSize) {
+			int now = (int) (System.currentTimeMillis() / 1000);
+			int from = request.getInt(33);
+			int to = Math.min(request.getInt(37), now);
+
+			List<Integer> times = new ArrayList<Integer>();
+			for (long time = ((long) from + interval - 1) / interval
+					* interval; time <= to; time += interval) {
+				times.add((int) time);
+			}
+
+			int records = LOG_PAYLOAD / recordSize;
+			int packets = Math.max(1, (times.size() + records - 1) / records);
+			for (int i = 0; i < packets; i++) {
+				ByteBuffer payload = payload(12 + LOG_PAYLOAD);
+				payload.putInt(request.getInt(29));
+				payload.putInt(from);
+				payload.putInt(to);
+				for (int j = i * records; j < Math.min(times.size(), (i + 1)
+						* records); j++) {
+					int record = payload.position();
+					payload.putInt(times.get(j));
+					payload.putLong(inverter.getValue(
+							LRIDefinition.MeteringTotWhOut, times.get(j)));
+					payload.position(record + recordSize);
+				}
+				respond(inverter, request, 0, payload, packets - 1 - i);
+			}
+		}
+
+		/**
+		 * responds an event every {@value #EVENT_INTERVAL} s of the requested
+		 * range, newest first
+		 */
+		private void eventLog(SimulatedInverter inverter, ByteBuffer request) {
+			int now = (int) (System.currentTimeMillis() / 1000);
+			int from = request.getInt(33);
+			int to = Math.min(request.getInt(37), now);
+
+			List<Integer> times = new ArrayList<Integer>();
+			long last = (long) to / EVENT_INTERVAL * EVENT_INTERVAL;
+			for (long time = last; time >= from; time -= EVENT_INTERVAL) {
+				times.add((int) time);
+			}
+
+			int records = LOG_PAYLOAD / 48;
+			int packets = Math.max(1, (times.size() + records - 1) / records);
+			for (int i = 0; i < packets; i++) {
+				ByteBuffer payload = payload(12 + LOG_PAYLOAD);
+				payload.putInt(request.getInt(29));
+				payload.putInt(from);
+				payload.putInt(to);
+				for (int j = i * records; j < Math.min(times.size(), (i + 1)
+						* records); j++) {
+					int time = times.get(j);
+					int record = payload.position();
+					payload.putInt(time);
+					payload.putShort((short) (time / EVENT_INTERVAL));
+					payload.putShort(inverter.getSUSyID());
+					payload.putInt(inverter.getSerial());
+					payload.putShort((short) EVENT_CODE);
+					payload.putShort((short) 0x0008);
+					payload.position(record + 48);
+				}
+				respond(inverter, request, 0, payload, packets - 1 - i);
+			}
+		}
+
+		private void respond(SimulatedInverter inverter, ByteBuffer request,
+				int errorCode, ByteBuffer payload) {
+			respond(inverter, request, errorCode, payload, 0);
+		}
+
+		/**
+		 * @param fragment
+		 *            number of packets of the response still to come
+		 */
+		private void respond(SimulatedInverter inverter, ByteBuffer request,
+				int errorCode, ByteBuffer payload, int fragment) {
+			short ctrl2 = request.getShort(13);
+
+			encoder.reset();
+			header(0x01, inverter.getAddress(), localAddress);
+			encoder.beginPacket();
+			encoder.putInt(L2SIGNATURE);
+			encoder.put((byte) ((payload.position() + 28) / 4));
+			encoder.put(request.get(6));
+			// to the application which sent the request
+			encoder.putShort(request.getShort(15));
+			encoder.putInt(request.getInt(17));
+			encoder.putShort(ctrl2);
+			encoder.putShort(inverter.getSUSyID());
+			encoder.putInt(inverter.getSerial());
+			encoder.putShort(ctrl2);
+			encoder.putShort((short) errorCode);
+			encoder.putShort((short) fragment);
+			encoder.putShort(request.getShort(27));
+			encoder.put(payload.array(), 0, payload.position());
+			encoder.endPacket();
+
+			send(fragment(encoder.finish()), true);
+		}
+
+		private byte[] frame(int command, SmaBluetoothAddress src,
+				SmaBluetoothAddress dst, ByteBuffer payload) {
+			encoder.reset();
+			header(command, src, dst);
+			encoder.put(payload.array(), 0, payload.position());
+			int length = encoder.finish();
+			return Arrays.copyOf(encoder.array(), length);
+		}
+
+		private void header(int command, SmaBluetoothAddress src,
+				SmaBluetoothAddress dst) {
+			encoder.putRaw((byte) 0x7E);
+			encoder.putRaw((byte) 0); // length
+			encoder.putRaw((byte) 0);
+			encoder.putRaw((byte) 0); // checksum
+			for (int i = 0; i < 6; i++)
+				encoder.putRaw(src.get(i));
+			for (int i = 0; i < 6; i++)
+				encoder.putRaw(dst.get(i));
+			encoder.putRaw((byte) (command & 0xFF));
+			encoder.putRaw((byte) (command >>> 8));
+		}
+
+		/**
+		 * splits the L2 packet of the encoded frame into fragments of at
+		 * most {@link BluetoothPlantSimulator#maxFrameLength} bytes
+		 */
+		private byte[] fragment(int length) {
+			byte[] frame = encoder.array();
+			if (maxFrameLength <= HEADERLENGTH || length <= maxFrameLength)
+				return Arrays.copyOf(frame, length);
+
+			ByteArrayOutputStream fragments = new ByteArrayOutputStream();
+			int chunk = maxFrameLength - HEADERLENGTH;
+			byte[] header = Arrays.copyOf(frame, HEADERLENGTH);
+			for (int offset = HEADERLENGTH; offset < length; offset += chunk) {
+				int n = Math.min(chunk, length - offset);
+				boolean last = offset + n >= length;
+
+				header[1] = (byte) ((n + HEADERLENGTH) & 0xFF);
+				header[2] = (byte) ((n + HEADERLENGTH) >>> 8);
+				header[3] = (byte) (header[0] ^ header[1] ^ header[2]);
+				header[16] = (byte) (last ? 0x01 : 0x08);
+				header[17] = 0;
+				fragments.write(header, 0, HEADERLENGTH);
+				fragments.write(frame, offset, n);
+			}
+			return fragments.toByteArray();
+		}
+
+		private void send(final byte[] frame, boolean loss) {
+			if (loss) {
+				if (isLost()) {
+					lostCount.incrementAndGet();
+					return;
+				}
+				responseCount.incrementAndGet();
+			}
+
+			ScheduledExecutorService scheduler;
+			synchronized (BluetoothPlantSimulator.this) {
+				scheduler = BluetoothPlantSimulator.this.scheduler;
+			}
+			if (scheduler == null)
+				return;
+
+			long now = System.currentTimeMillis();
+			lastDelivery = Math.max(now + nextDelay(), lastDelivery);
+			synchronized (pending) {
+				pending.add(frame);
+			}
+
+			// a delivery may run before the delivery of an earlier frame due
+			// at the same time, so it delivers all frames up to its own
+			final int count = ++sent;
+			scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					deliver(count);
+				}
+			}, lastDelivery - now, TimeUnit.MILLISECONDS);
+		}
+
+		/**
+		 * writes the pending frames up to the frame with the given number
+		 */
+		private void deliver(int count) {
+			synchronized (pending) {
+				while (delivered < count && !pending.isEmpty()) {
+					byte[] frame = pending.poll();
+					delivered++;
+					try {
+						out.write(frame, 0, frame.length);
+						bytesSent.addAndGet(frame.length);
+					} catch (IOException e) {
+						logger.debug("response dropped: {}", e.getMessage());
+					}
+				}
+			}
+		}
+
+		private ByteBuffer payload(int capacity) {
+			return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.simulator;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.microedition.io.StreamConnection;
+
+/**
+ * A stream connection within the JVM. The peer reads what the client writes
+ * to the connection and vice versa.
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public class LoopbackConnection implements StreamConnection {
+
+	// from the client to the peer
+	private final Pipe upstream = new Pipe();
+
+	// from the peer to the client
+	private final Pipe downstream = new Pipe();
+
+	@Override
+	public InputStream openInputStream() {
+		return downstream.getInputStream();
+	}
+
+	@Override
+	public DataInputStream openDataInputStream() {
+		return new DataInputStream(openInputStream());
+	}
+
+	@Override
+	public OutputStream openOutputStream() {
+		return upstream.getOutputStream();
+	}
+
+	@Override
+	public DataOutputStream openDataOutputStream() {
+		return new DataOutputStream(openOutputStream());
+	}
+
+	/**
+	 * @return the stream of the bytes written by the client
+	 */
+	public InputStream getPeerInputStream() {
+		return upstream.getInputStream();
+	}
+
+	/**
+	 * @return the stream to the client
+	 */
+	public OutputStream getPeerOutputStream() {
+		return downstream.getOutputStream();
+	}
+
+	/**
+	 * closes both directions, a blocked read returns the end of the stream
+	 */
+	@Override
+	public void close() {
+		upstream.close();
+		downstream.close();
+	}
+}
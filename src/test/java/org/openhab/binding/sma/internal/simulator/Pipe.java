@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.simulator;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * An in-memory byte stream from one thread to another.
+ *
+ * Unlike a {@link java.io.PipedInputStream} it is not bound to the threads
+ * which write and read it, so responses can be written by a scheduler.
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+class Pipe {
+
+	private byte[] data = new byte[4096];
+	private int head = 0;
+	private int count = 0;
+	private boolean closed = false;
+
+	private final InputStream in = new InputStream() {
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return Pipe.this.read(b, off, len);
+		}
+
+		@Override
+		public int available() {
+			return Pipe.this.available();
+		}
+
+		@Override
+		public void close() {
+			Pipe.this.close();
+		}
+	};
+
+	private final OutputStream out = new OutputStream() {
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			Pipe.this.write(b, off, len);
+		}
+
+		@Override
+		public void close() {
+			Pipe.this.close();
+		}
+	};
+
+	public InputStream getInputStream() {
+		return in;
+	}
+
+	public OutputStream getOutputStream() {
+		return out;
+	}
+
+	private synchronized int read(byte[] b, int off, int len)
+			throws IOException {
+		if (len == 0)
+			return 0;
+
+		while (count == 0) {
+			if (closed)
+				return -1;
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+
+		int n = Math.min(len, count);
+		int first = Math.min(n, data.length - head);
+		System.arraycopy(data, head, b, off, first);
+		System.arraycopy(data, 0, b, off + first, n - first);
+		head = (head + n) % data.length;
+		count -= n;
+		return n;
+	}
+
+	private synchronized void write(byte[] b, int off, int len)
+			throws IOException {
+		if (closed)
+			throw new EOFException("pipe closed");
+
+		if (count + len > data.length) {
+			byte[] grown = new byte[Math.max(data.length * 2, count + len)];
+			int first = Math.min(count, data.length - head);
+			System.arraycopy(data, head, grown, 0, first);
+			System.arraycopy(data, 0, grown, first, count - first);
+			data = grown;
+			head = 0;
+		}
+
+		int tail = (head + count) % data.length;
+		int first = Math.min(len, data.length - tail);
+		System.arraycopy(b, off, data, tail, first);
+		System.arraycopy(b, off + first, data, 0, len - first);
+		count += len;
+		notifyAll();
+	}
+
+	private synchronized int available() {
+		return count;
+	}
+
+	public synchronized void close() {
+		closed = true;
+		notifyAll();
+	}
+}
@@ -0,0 +1,195 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.sma.internal.simulator;
+
+import java.util.Random;
+
+import org.openhab.binding.sma.internal.hardware.devices.SmaBluetoothAddress;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.LRIDefinition;
+import org.openhab.binding.sma.internal.hardware.devices.SmaDevice.SmaStatus;
+
+/**
+ * A virtual inverter of a {@link BluetoothPlantSimulator}. Its values follow
+ * its nominal power with some noise, the counters grow with the time.
+ *
+ * @author Volker Richert
+ * @since 1.5.0
+ */
+public class SimulatedInverter {
+
+	// device class "solar inverter" and a device type
+	private static final int MAIN_MODEL = 8001;
+	private static final int MODEL = 9074;
+
+	private final SmaBluetoothAddress address;
+	private final short susyID;
+	private final int serial;
+	private final int nominalPower;
+	private final boolean escaped;
+
+	private final Random random;
+
+	// time (in s) the inverter was started
+	private final int start;
+	private final long energyTotal;
+
+	public SimulatedInverter(SmaBluetoothAddress address, short susyID,
+			int serial, int nominalPower, boolean escaped, long seed) {
+		this.address = address;
+		this.susyID = susyID;
+		this.serial = serial;
+		this.nominalPower = nominalPower;
+		this.escaped = escaped;
+		this.random = new Random(seed);
+		this.start = (int) (System.currentTimeMillis() / 1000);
+		this.energyTotal = 10000000L + (seed & 0xFFFFF);
+	}
+
+	public SmaBluetoothAddress getAddress() {
+		return address;
+	}
+
+	public short getSUSyID() {
+		return susyID;
+	}
+
+	public int getSerial() {
+		return serial;
+	}
+
+	public int getNominalPower() {
+		return nominalPower;
+	}
+
+	public String getName() {
+		return "SN: " + (serial & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @return the value of a numeric or status LRI at the given time (in s)
+	 */
+	public synchronized long getValue(LRIDefinition lri, int time) {
+		int power = power();
+		long value;
+
+		switch (lri) {
+		case OperationHealth:
+			return SmaStatus.Ok.getValue();
+		case OperationGriSwStt:
+			return SmaStatus.Closed.getValue();
+		case NameplateMainModel:
+			return MAIN_MODEL;
+		case NameplateModel:
+			return MODEL;
+		case NameplateAvalGrpUsr:
+			return 0;
+		case MeteringTotWhOut:
+		case MeteringPvMsTotWhOut:
+		case MeteringGridMsTotWhOut:
+			value = energyTotal + (long) (time - start) * nominalPower / 7200;
+			break;
+		case MeteringDyWhOut:
+		case MeteringGridMsDyWhOut:
+			value = (long) (time - start) * nominalPower / 7200;
+			break;
+		case MeteringTotOpTms:
+		case MeteringTotFeedTms:
+			value = 36000000L + time - start;
+			break;
+		case GridMsTotW:
+		case MeteringPvMsTotWOut:
+		case MeteringGridMsTotWOut:
+			value = power;
+			break;
+		case GridMsWphsA:
+		case GridMsWphsB:
+		case GridMsWphsC:
+			value = power / 3;
+			break;
+		case DcMsWatt1:
+		case DcMsWatt2:
+			value = power * 103 / 200;
+			break;
+		case GridMsPhVphsA:
+		case GridMsPhVphsB:
+		case GridMsPhVphsC:
+			value = 23000 + random.nextInt(400) - 200;
+			break;
+		case GridMsAphsA_1:
+		case GridMsAphsB_1:
+		case GridMsAphsC_1:
+		case GridMsAphsA:
+		case GridMsAphsB:
+		case GridMsAphsC:
+			value = power * 1000L / 690;
+			break;
+		case GridMsHz:
+			value = 5000 + random.nextInt(10) - 5;
+			break;
+		case DcMsVol1:
+		case DcMsVol2:
+			value = 35000 + random.nextInt(2000) - 1000;
+			break;
+		case DcMsAmp1:
+		case DcMsAmp2:
+			value = power * 1000L / 700;
+			break;
+		case OperationHealthSttOk:
+		case OperationHealthSttWrn:
+		case OperationHealthSttAlm:
+		case InverterWLim:
+			value = nominalPower;
+			break;
+		case CoolsysTmpNom:
+			value = 4000 + random.nextInt(500);
+			break;
+		case BatChaStt:
+			value = 80;
+			break;
+		case BatTmpVal:
+			value = 2500;
+			break;
+		case BatVol:
+			value = 5000;
+			break;
+		default:
+			value = 0;
+		}
+
+		// bytes which have to be escaped within a packet
+		return escaped ? (value & ~0xFFL) | 0x7E : value;
+	}
+
+	/**
+	 * @return the status values of a status LRI, the first one is set
+	 */
+	public int[] getStatusValues(LRIDefinition lri) {
+		switch (lri) {
+		case OperationHealth:
+			return new int[] { SmaStatus.Ok.getValue(),
+					SmaStatus.Fault.getValue(), SmaStatus.Off.getValue(),
+					SmaStatus.Warning.getValue() };
+		case OperationGriSwStt:
+			return new int[] { SmaStatus.Closed.getValue(),
+					SmaStatus.Open.getValue() };
+		default:
+			return new int[] { (int) getValue(lri, start) };
+		}
+	}
+
+	private int power() {
+		return nominalPower / 2 + random.nextInt(nominalPower / 2 + 1);
+	}
+
+	@Override
+	public String toString() {
+		return "SimulatedInverter [address=" + address + ", susyID="
+				+ susyID + ", serial=" + (serial & 0xFFFFFFFFL) + "]";
+	}
+}